@@ -0,0 +1,72 @@
+package com.example.invoice.service;
+
+import com.example.invoice.common.MoneyUtils;
+import com.example.invoice.model.InvoiceItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Totals for one save of an invoice: the previous InvoiceService path (each line computed once while
+ * setting lineTotal and again while summing, all through MoneyUtils) against {@link TotalsCalculator}.
+ * Run with {@code ./gradlew jmh}; add {@code -prof gc} via jmh.profilers to compare allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TotalsCalculatorBenchmark {
+
+    @Param({"20", "2000"})
+    int lines;
+
+    List<InvoiceItem> items;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        items = new ArrayList<>(lines);
+        for (int n = 0; n < lines; n++) {
+            InvoiceItem item = new InvoiceItem();
+            item.setQuantity(BigDecimal.valueOf(random.nextInt(10_000), 2));
+            item.setUnitPrice(BigDecimal.valueOf(random.nextInt(1_000_000), 2));
+            item.setTaxRate(BigDecimal.valueOf(random.nextInt(2_500), 2));
+            items.add(item);
+        }
+    }
+
+    @Benchmark
+    public BigDecimal moneyUtilsTwoPass() {
+        for (InvoiceItem i : items) {
+            var line = MoneyUtils.mul(i.getQuantity(), i.getUnitPrice());
+            var tax = MoneyUtils.mul(line, i.getTaxRate().movePointLeft(2));
+            i.setLineTotal(MoneyUtils.add(line, tax));
+        }
+        BigDecimal sub = BigDecimal.ZERO;
+        BigDecimal tax = BigDecimal.ZERO;
+        BigDecimal total = BigDecimal.ZERO;
+        for (InvoiceItem i : items) {
+            var line = MoneyUtils.mul(i.getQuantity(), i.getUnitPrice());
+            var lineTax = MoneyUtils.mul(line, i.getTaxRate().movePointLeft(2));
+            sub = MoneyUtils.add(sub, line);
+            tax = MoneyUtils.add(tax, lineTax);
+            total = MoneyUtils.add(total, MoneyUtils.add(line, lineTax));
+        }
+        return total.add(sub).add(tax);
+    }
+
+    @Benchmark
+    public TotalsCalculator.Totals minorUnitsSinglePass() {
+        return TotalsCalculator.computeLines(items);
+    }
+}
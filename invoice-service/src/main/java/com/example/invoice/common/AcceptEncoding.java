@@ -0,0 +1,44 @@
+package com.example.invoice.common;
+
+import java.util.Locale;
+
+/** Reads {@code Accept-Encoding} the way RFC 9110 says, including {@code q=0} as "not acceptable". */
+public final class AcceptEncoding {
+    private AcceptEncoding() {}
+
+    /**
+     * True when the header accepts gzip: a {@code gzip} (or {@code x-gzip}) entry with a non-zero
+     * weight, or else a {@code *} entry with one. A missing header means identity only.
+     */
+    public static boolean acceptsGzip(String header) {
+        if (header == null) return false;
+        Double gzip = null;
+        Double any = null;
+        for (String entry : header.split(",")) {
+            String[] parts = entry.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            double q = weight(parts);
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzip = gzip == null ? q : Math.max(gzip, q);
+            } else if (coding.equals("*")) {
+                any = q;
+            }
+        }
+        Double weight = gzip != null ? gzip : any;
+        return weight != null && weight > 0;
+    }
+
+    private static double weight(String[] parts) {
+        for (int n = 1; n < parts.length; n++) {
+            String param = parts[n].trim();
+            if (param.length() > 1 && Character.toLowerCase(param.charAt(0)) == 'q' && param.charAt(1) == '=') {
+                try {
+                    return Double.parseDouble(param.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
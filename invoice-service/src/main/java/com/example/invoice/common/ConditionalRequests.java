@@ -0,0 +1,43 @@
+package com.example.invoice.common;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.context.request.ServletWebRequest;
+
+/**
+ * Conditional requests on JSON resources whose strong ETag is built from {@code @Version} columns, so the
+ * check needs a version-only query and nothing is loaded or serialized when it settles the request.
+ */
+public final class ConditionalRequests {
+    private ConditionalRequests() {}
+
+    /**
+     * True when the request is already answered: 304 for a matching {@code If-None-Match} on a read, 412 for
+     * an {@code If-Match} that does not match on a write. Reads are marked to be revalidated before reuse.
+     */
+    public static boolean answered(ServletWebRequest request, String etag) {
+        if (HttpMethod.GET.matches(request.getRequest().getMethod())) {
+            request.getResponse().setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().cachePrivate().getHeaderValue());
+        }
+        return request.checkNotModified(etag);
+    }
+
+    /**
+     * Labels a read with the ETag of what was actually loaded, which a write committed since
+     * {@link #answered} may have moved past the version it checked.
+     */
+    public static void tag(ServletWebRequest request, String etag) {
+        request.getResponse().setHeader(HttpHeaders.ETAG, etag);
+    }
+
+    public static boolean hasIfMatch(ServletWebRequest request) {
+        return request.getHeader(HttpHeaders.IF_MATCH) != null;
+    }
+
+    /** A write lost to a concurrent one: 412 if the client made it conditional, 409 otherwise. */
+    public static HttpStatus lostUpdate(ServletWebRequest request) {
+        return hasIfMatch(request) ? HttpStatus.PRECONDITION_FAILED : HttpStatus.CONFLICT;
+    }
+}
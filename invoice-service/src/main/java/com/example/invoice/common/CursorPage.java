@@ -0,0 +1,21 @@
+package com.example.invoice.common;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Slice-style page for keyset pagination: no total count, just the rows and the cursor
+ * to pass as {@code after} for the next page ({@code null} on the last page).
+ */
+public record CursorPage<T>(List<T> content, String nextCursor, boolean hasNext) {
+
+    /**
+     * Builds a page from a query that fetched {@code limit + 1} rows; the extra row only
+     * signals that another page exists.
+     */
+    public static <T> CursorPage<T> of(List<T> rows, int limit, Function<T, KeysetCursor<?>> cursorOf) {
+        if (rows.size() <= limit) return new CursorPage<>(rows, null, false);
+        List<T> content = rows.subList(0, limit);
+        return new CursorPage<>(content, cursorOf.apply(content.get(limit - 1)).encode(), true);
+    }
+}
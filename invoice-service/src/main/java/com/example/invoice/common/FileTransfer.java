@@ -0,0 +1,52 @@
+package com.example.invoice.common;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sends a byte range of a file as the response body without copying it through the heap. On Tomcat
+ * connectors that support it the transfer is handed to the container's sendfile after the handler
+ * returns (kernel-level zero-copy); elsewhere the file channel is transferred straight into the response.
+ * Headers, including Content-Length, must be set by the caller first.
+ */
+public final class FileTransfer {
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private FileTransfer() {}
+
+    /**
+     * Sends bytes {@code [start, end)} of {@code file}; throws {@link EOFException} if the file is shorter than
+     * {@code end}, e.g. because it was truncated after the caller sized the response.
+     */
+    public static void send(HttpServletRequest request, HttpServletResponse response, Path file, long start, long end)
+            throws IOException {
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (position < end) {
+                long sent = channel.transferTo(position, end - position, out);
+                if (sent == 0 && position >= channel.size()) {
+                    throw new EOFException(file + " ended at byte " + position + " of " + end);
+                }
+                position += sent;
+            }
+        }
+    }
+}
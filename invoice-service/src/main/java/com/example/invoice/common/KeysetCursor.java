@@ -0,0 +1,44 @@
+package com.example.invoice.common;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.function.Function;
+
+/**
+ * Opaque position for keyset pagination: the sort key and id of the last row returned,
+ * base64url-encoded so clients treat it as a token rather than a query.
+ */
+public record KeysetCursor<K>(K key, long id) {
+    private static final char SEPARATOR = '|';
+
+    public String encode() {
+        byte[] raw = (key.toString() + SEPARATOR + id).getBytes(StandardCharsets.UTF_8);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+    }
+
+    /**
+     * Reads a token back, parsing the key with {@code keyParser} (e.g. {@code LocalDate::parse}), so a key
+     * that does not parse is as malformed as bad base64.
+     */
+    public static <K> KeysetCursor<K> decode(String token, Function<String, K> keyParser) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int sep = raw.lastIndexOf(SEPARATOR);
+            if (sep < 0) throw new IllegalArgumentException("Malformed cursor");
+            return new KeysetCursor<>(keyParser.apply(raw.substring(0, sep)), Long.parseLong(raw.substring(sep + 1)));
+        } catch (RuntimeException e) {
+            throw new MalformedCursorException(token, e);
+        }
+    }
+
+    /** A cursor the client altered or made up: a 400, not a server error. */
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public static class MalformedCursorException extends IllegalArgumentException {
+        MalformedCursorException(String token, Throwable cause) {
+            super("Malformed cursor: " + token, cause);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.invoice.config;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.datatype.hibernate6.Hibernate6Module;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Lazy collections that a fetch plan did not load are written as null
+ * instead of being initialized (or failing) during serialization.
+ */
+@Configuration
+public class JacksonConfig {
+
+    @Bean
+    public Module hibernateModule() {
+        return new Hibernate6Module();
+    }
+}
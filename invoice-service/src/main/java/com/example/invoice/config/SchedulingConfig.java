@@ -0,0 +1,16 @@
+package com.example.invoice.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * All scheduled work: email outbox delivery, customer cache invalidation and the storage reconciler.
+ * {@code app.scheduling.enabled=false} turns every one of them off, so a node started that way sends no
+ * emails and keeps serving customers it cached until they expire.
+ */
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty(name = "app.scheduling.enabled", havingValue = "true", matchIfMissing = true)
+public class SchedulingConfig {
+}
@@ -40,10 +40,10 @@ public class SecurityConfig {
                     "/oauth2/**",
                     "/error"
                 ).permitAll()
+                // Email sending requires authentication (before the public /api/invoices/** rule, first match wins)
+                .requestMatchers("/api/invoices/*/send-email", "/api/invoices/send-email/**").authenticated()
                 // Most API endpoints are public for now (backward compatibility)
                 .requestMatchers("/api/invoices/**", "/api/customers/**", "/api/attachments/**").permitAll()
-                // Email sending requires authentication
-                .requestMatchers("/api/invoices/*/send-email").authenticated()
                 .anyRequest().permitAll()
             )
             .oauth2Login(oauth2 -> oauth2
@@ -69,7 +69,7 @@ public class SecurityConfig {
         config.setAllowedOrigins(List.of("http://localhost:5173", "http://localhost:5174", "http://localhost:8080"));
         config.setAllowedMethods(List.of("GET", "POST", "PUT", "DELETE", "OPTIONS"));
         config.setAllowedHeaders(List.of("*"));
-        config.setExposedHeaders(List.of("Location"));
+        config.setExposedHeaders(List.of("Location", "ETag"));
         config.setAllowCredentials(true); // Required for OAuth2 cookies
         config.setMaxAge(3600L);
 
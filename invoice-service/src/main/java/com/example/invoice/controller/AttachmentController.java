@@ -1,49 +1,97 @@
 package com.example.invoice.controller;
 
-import com.example.invoice.model.Invoice;
 import com.example.invoice.model.InvoiceAttachment;
 import com.example.invoice.repository.InvoiceAttachmentRepository;
-import com.example.invoice.repository.InvoiceRepository;
+import com.example.invoice.service.AttachmentArchiveService;
+import com.example.invoice.service.AttachmentService;
 import com.example.invoice.service.AttachmentStorageService;
-import org.springframework.core.io.FileSystemResource;
+import com.example.invoice.service.AttachmentUploadService;
+import com.example.invoice.common.AcceptEncoding;
+import com.example.invoice.common.FileTransfer;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.List;
 
 @RestController
 @RequestMapping("/api")
 public class AttachmentController {
-    private final InvoiceRepository invoiceRepository;
     private final InvoiceAttachmentRepository attachmentRepository;
+    private final AttachmentService attachmentService;
+    private final AttachmentUploadService uploadService;
     private final AttachmentStorageService storage;
+    private final AttachmentArchiveService archiveService;
 
-    public AttachmentController(InvoiceRepository invoiceRepository,
-                                InvoiceAttachmentRepository attachmentRepository,
-                                AttachmentStorageService storage) {
-        this.invoiceRepository = invoiceRepository;
+    public AttachmentController(InvoiceAttachmentRepository attachmentRepository,
+                                AttachmentService attachmentService,
+                                AttachmentUploadService uploadService,
+                                AttachmentStorageService storage,
+                                AttachmentArchiveService archiveService) {
         this.attachmentRepository = attachmentRepository;
+        this.attachmentService = attachmentService;
+        this.uploadService = uploadService;
         this.storage = storage;
+        this.archiveService = archiveService;
     }
 
     @PostMapping(value = "/invoices/{id}/attachments", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public InvoiceAttachment upload(@PathVariable Long id, @RequestParam("file") MultipartFile file) throws IOException {
-        if (file.isEmpty()) throw new IllegalArgumentException("Empty file");
-        if (file.getSize() > 10 * 1024 * 1024) throw new IllegalArgumentException("File too large (max 10MB)");
-        Invoice invoice = invoiceRepository.findById(id).orElseThrow();
-        String storageKey = storage.save(file.getOriginalFilename(), file.getInputStream());
-        InvoiceAttachment att = new InvoiceAttachment();
-        att.setInvoice(invoice);
-        att.setFilename(file.getOriginalFilename());
-        att.setContentType(file.getContentType());
-        att.setSize(file.getSize());
-        att.setStorageKey(storageKey);
-        return attachmentRepository.save(att);
+        return attachmentService.upload(id, file);
+    }
+
+    /** Starts a resumable upload; send the chunks to the returned {@code Location}. */
+    @PostMapping("/invoices/{id}/attachments/uploads")
+    public ResponseEntity<AttachmentUploadService.UploadStatus> startUpload(
+            @PathVariable Long id, @RequestBody AttachmentUploadService.NewUpload request) throws IOException {
+        AttachmentUploadService.UploadStatus upload = uploadService.start(id, request);
+        return ResponseEntity.created(URI.create("/api/attachments/uploads/" + upload.id())).body(upload);
+    }
+
+    /** Which chunks are still missing, e.g. to resume after a dropped connection. */
+    @GetMapping("/attachments/uploads/{uploadId}")
+    public AttachmentUploadService.UploadStatus uploadStatus(@PathVariable String uploadId) {
+        return uploadService.status(uploadId);
+    }
+
+    /** Raw chunk bytes for {@code [offset, offset + chunkSize)}; chunks may be sent in parallel and re-sent. */
+    @PutMapping("/attachments/uploads/{uploadId}/chunks/{offset}")
+    public ResponseEntity<Void> uploadChunk(@PathVariable String uploadId, @PathVariable long offset,
+                                            HttpServletRequest request) throws IOException {
+        uploadService.writeChunk(uploadId, offset, Channels.newChannel(request.getInputStream()));
+        return ResponseEntity.noContent().build();
+    }
+
+    @PostMapping("/attachments/uploads/{uploadId}/complete")
+    public InvoiceAttachment completeUpload(@PathVariable String uploadId,
+                                            @RequestParam(required = false) String sha256) throws IOException {
+        return uploadService.complete(uploadId, sha256);
+    }
+
+    @DeleteMapping("/attachments/uploads/{uploadId}")
+    public void abortUpload(@PathVariable String uploadId) throws IOException {
+        uploadService.abort(uploadId);
     }
 
     @GetMapping("/invoices/{id}/attachments")
@@ -51,29 +99,146 @@ public class AttachmentController {
         return attachmentRepository.findByInvoice_Id(id);
     }
 
+    /** Every attachment of the invoice in one ZIP, streamed from storage. */
+    @GetMapping("/invoices/{id}/attachments.zip")
+    public ResponseEntity<StreamingResponseBody> invoiceZip(@PathVariable Long id) {
+        return zip(archiveService.forInvoice(id));
+    }
+
+    /** Every attachment of the customer's invoices, one folder per invoice. */
+    @GetMapping("/customers/{id}/attachments.zip")
+    public ResponseEntity<StreamingResponseBody> customerZip(@PathVariable Long id) {
+        return zip(archiveService.forCustomer(id));
+    }
+
+    private ResponseEntity<StreamingResponseBody> zip(AttachmentArchiveService.Archive archive) {
+        StreamingResponseBody body = out -> archiveService.writeZip(archive, out);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + archive.filename())
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .body(body);
+    }
+
+    /**
+     * Sends the file by zero-copy transfer with a strong ETag (the content hash), {@code Last-Modified},
+     * 304 for unchanged conditional requests and a single {@code Range} as 206, so an interrupted
+     * download resumes where it stopped. Attachments never change under their id, so content-addressed
+     * ones may be cached for good. A blob stored gzipped goes out as is to clients that accept gzip
+     * and is decoded on the fly for everyone else and for ranges, which address the original bytes.
+     */
     @GetMapping("/attachments/{attachmentId}")
-    public ResponseEntity<FileSystemResource> download(@PathVariable Long attachmentId) {
+    public void download(@PathVariable Long attachmentId, ServletWebRequest request, HttpServletResponse response)
+            throws IOException {
         InvoiceAttachment att = attachmentRepository.findById(attachmentId).orElseThrow();
-        Path path = storage.load(att.getStorageKey());
-        FileSystemResource resource = new FileSystemResource(path);
-        String filename = att.getFilename();
-        long len;
+        String key = att.getStorageKey();
+        boolean gzipped = AttachmentStorageService.GZIP.equals(att.getContentEncoding());
+        String range = request.getHeader(HttpHeaders.RANGE);
+        boolean sendEncoded = gzipped && range == null
+                && AcceptEncoding.acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        String etag = storage.isContentAddressed(key) ? "\"" + key + (sendEncoded ? "-gzip" : "") + "\"" : null;
+        long lastModified = att.getCreatedAt().toEpochMilli();
+        if (gzipped) response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (request.checkNotModified(etag, lastModified)) return;
+
+        Path path = storage.load(key, att.getContentEncoding());
+        long length = gzipped ? att.getSize() : Files.size(path);
+        response.setContentType(att.getContentType() == null ? MediaType.APPLICATION_OCTET_STREAM_VALUE : att.getContentType());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + att.getFilename() + "\"");
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, (etag != null
+                ? CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable()
+                : CacheControl.noCache().cachePrivate()).getHeaderValue());
+        if (sendEncoded) {
+            long stored = Files.size(path);
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, AttachmentStorageService.GZIP);
+            response.setContentLengthLong(stored);
+            FileTransfer.send(request.getRequest(), response, path, 0, stored);
+            return;
+        }
+
+        long start = 0;
+        long end = length;
+        if (range != null && rangeStillValid(request, etag, lastModified)) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(range);
+            } catch (IllegalArgumentException malformed) {
+                ranges = List.of();
+            }
+            // several ranges would need multipart/byteranges; clients resuming a download ask for one
+            if (ranges.size() == 1) {
+                HttpRange r = ranges.get(0);
+                start = r.getRangeStart(length);
+                end = r.getRangeEnd(length) + 1;
+                if (start >= length || start >= end) {
+                    response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                    return;
+                }
+                response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + length);
+            }
+        }
+        response.setContentLengthLong(end - start);
+        if (!gzipped) {
+            FileTransfer.send(request.getRequest(), response, path, start, end);
+            return;
+        }
+        try (InputStream in = storage.open(key, att.getContentEncoding())) {
+            in.skipNBytes(start);
+            copy(in, response.getOutputStream(), end - start);
+        }
+    }
+
+    /**
+     * PNG preview (at most 256 px) of an image or PDF attachment, generated in the background after upload;
+     * 404 until it exists. Cacheable like the download, keyed by the same content hash.
+     */
+    @GetMapping("/attachments/{attachmentId}/thumbnail")
+    public void thumbnail(@PathVariable Long attachmentId, ServletWebRequest request, HttpServletResponse response)
+            throws IOException {
+        InvoiceAttachment att = attachmentRepository.findById(attachmentId).orElseThrow();
+        Path thumbnail = storage.thumbnail(att.getStorageKey());
+        if (!Files.exists(thumbnail)) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+        String etag = storage.isContentAddressed(att.getStorageKey()) ? "\"" + att.getStorageKey() + "-thumb\"" : null;
+        if (request.checkNotModified(etag, Files.getLastModifiedTime(thumbnail).toMillis())) return;
+        long length = Files.size(thumbnail);
+        response.setContentType(MediaType.IMAGE_PNG_VALUE);
+        response.setContentLengthLong(length);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, (etag != null
+                ? CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable()
+                : CacheControl.noCache().cachePrivate()).getHeaderValue());
+        FileTransfer.send(request.getRequest(), response, thumbnail, 0, length);
+    }
+
+    private static void copy(InputStream in, OutputStream out, long count) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        while (count > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+            if (n < 0) throw new EOFException("Attachment shorter than recorded size");
+            out.write(buffer, 0, n);
+            count -= n;
+        }
+    }
+
+    /** {@code If-Range} turns a range request into a full download when the client's copy is outdated. */
+    private static boolean rangeStillValid(ServletWebRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) return true;
+        if (ifRange.startsWith("\"")) return ifRange.equals(etag);
         try {
-            len = resource.contentLength();
-        } catch (java.io.IOException e) {
-            throw new RuntimeException(e);
+            return ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli()
+                    == lastModified / 1000 * 1000;
+        } catch (DateTimeParseException e) {
+            return false;
         }
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                .contentType(MediaType.parseMediaType(att.getContentType() == null ? MediaType.APPLICATION_OCTET_STREAM_VALUE : att.getContentType()))
-                .contentLength(len)
-                .body(resource);
     }
 
     @DeleteMapping("/attachments/{attachmentId}")
-    public void delete(@PathVariable Long attachmentId) throws IOException {
-        InvoiceAttachment att = attachmentRepository.findById(attachmentId).orElseThrow();
-        storage.delete(att.getStorageKey());
-        attachmentRepository.delete(att);
+    public void delete(@PathVariable Long attachmentId) {
+        attachmentService.delete(attachmentId);
     }
 }
@@ -1,49 +1,98 @@
 package com.example.invoice.controller;
 
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import com.example.invoice.common.ConditionalRequests;
+import com.example.invoice.common.CursorPage;
+import com.example.invoice.common.KeysetCursor;
 import com.example.invoice.repository.CustomerRepository;
 import com.example.invoice.model.Customer;
+import com.example.invoice.service.CustomerService;
+import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/customers")
 public class CustomerController {
+    private static final int MAX_SCROLL_LIMIT = 1000;
+
     private final CustomerRepository repo;
-    public CustomerController(CustomerRepository repo) { this.repo = repo; }
+    private final CustomerService customers;
+
+    public CustomerController(CustomerRepository repo, CustomerService customers) {
+        this.repo = repo;
+        this.customers = customers;
+    }
 
     @GetMapping
     public Page<Customer> list(Pageable pageable) { return repo.findAll(pageable); }
 
+    /**
+     * Cursor-based listing ordered by (createdAt, id): {@code ?limit=N[&after=<nextCursor>]}.
+     */
+    @GetMapping(params = "limit")
+    public CursorPage<Customer> scroll(@RequestParam(required = false) String after, @RequestParam int limit) {
+        int size = Math.clamp(limit, 1, MAX_SCROLL_LIMIT);
+        Limit fetch = Limit.of(size + 1);
+        List<Customer> rows;
+        if (after == null || after.isBlank()) {
+            rows = repo.findFirst(fetch);
+        } else {
+            KeysetCursor<Instant> cursor = KeysetCursor.decode(after, Instant::parse);
+            rows = repo.findAfter(cursor.key(), cursor.id(), fetch);
+        }
+        return CursorPage.of(rows, size, c -> new KeysetCursor<>(c.getCreatedAt(), c.getId()));
+    }
+
+    /**
+     * Strong ETag from the version; {@code If-None-Match} is answered with 304 from a version-only query. A 200
+     * is tagged with the customer it returns.
+     */
     @GetMapping("/{id}")
-    public Customer get(@PathVariable Long id) { return repo.findById(id).orElseThrow(); }
+    public Customer get(@PathVariable Long id, ServletWebRequest request) {
+        long version = customers.version(id);
+        if (ConditionalRequests.answered(request, etag(version))) return null;
+        Customer customer = customers.get(id, version);
+        ConditionalRequests.tag(request, etag(customer.getVersion()));
+        return customer;
+    }
 
     @PostMapping
     public ResponseEntity<Customer> create(@RequestBody Customer c) {
-        Optional<Customer> existing = repo.findByEmail(c.getEmail());
+        Optional<Customer> existing = customers.findByEmail(c.getEmail());
         if (existing.isPresent()) {
             return ResponseEntity.ok(existing.get());
         }
-        Customer saved = repo.save(c);
+        Customer saved = customers.create(c);
         return ResponseEntity.status(HttpStatus.CREATED).body(saved);
     }
 
+    /** With {@code If-Match}, 412 unless the customer is still at that ETag; the response carries the new one. */
     @PutMapping("/{id}")
-    public Customer update(@PathVariable Long id, @RequestBody Customer c) {
-        Customer existing = repo.findById(id).orElseThrow();
-        existing.setName(c.getName());
-        existing.setEmail(c.getEmail());
-        existing.setPhone(c.getPhone());
-        existing.setBillingAddress(c.getBillingAddress());
-        existing.setShippingAddress(c.getShippingAddress());
-        existing.setTaxNumber(c.getTaxNumber());
-        return repo.save(existing);
+    public ResponseEntity<Customer> update(@PathVariable Long id, @RequestBody Customer c, ServletWebRequest request) {
+        long version = customers.version(id);
+        if (ConditionalRequests.answered(request, etag(version))) return null;
+        Customer saved = customers.update(id, c, ConditionalRequests.hasIfMatch(request) ? version : null);
+        return ResponseEntity.ok().eTag(etag(saved.getVersion())).body(saved);
     }
 
     @DeleteMapping("/{id}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
-    public void delete(@PathVariable Long id) { repo.deleteById(id); }
+    public void delete(@PathVariable Long id) { customers.delete(id); }
+
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<Void> lostUpdate(ServletWebRequest request) {
+        return ResponseEntity.status(ConditionalRequests.lostUpdate(request)).build();
+    }
+
+    private static String etag(long version) {
+        return "\"" + version + "\"";
+    }
 }
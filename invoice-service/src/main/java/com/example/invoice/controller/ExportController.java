@@ -0,0 +1,75 @@
+package com.example.invoice.controller;
+
+import com.example.invoice.common.AcceptEncoding;
+import com.example.invoice.service.ExportService;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.WebAsyncTask;
+
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Full-ledger exports streamed straight from the database cursor to the client.
+ */
+@RestController
+@RequestMapping("/api")
+public class ExportController {
+    private final ExportService exportService;
+    private final Duration timeout;
+
+    public ExportController(ExportService exportService, @Value("${app.export.timeout:30m}") Duration timeout) {
+        this.exportService = exportService;
+        this.timeout = timeout;
+    }
+
+    @GetMapping("/invoices/export")
+    public WebAsyncTask<Void> exportInvoices(
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            HttpServletResponse response) {
+        return stream("invoices", parse(format), acceptEncoding, response, exportService::writeInvoices);
+    }
+
+    @GetMapping("/payments/export")
+    public WebAsyncTask<Void> exportPayments(
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            HttpServletResponse response) {
+        return stream("payments", parse(format), acceptEncoding, response, exportService::writePayments);
+    }
+
+    /** Writes on an MVC async thread under {@code app.export.timeout}, long enough for a full ledger. */
+    private WebAsyncTask<Void> stream(String name, ExportService.Format format, String acceptEncoding,
+                                      HttpServletResponse response, BiConsumer<ExportService.Format, OutputStream> writer) {
+        boolean gzip = AcceptEncoding.acceptsGzip(acceptEncoding);
+        response.setContentType(format.mediaType());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + name + "." + format.extension());
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        return new WebAsyncTask<>(timeout.toMillis(), () -> {
+            OutputStream out = response.getOutputStream();
+            if (!gzip) {
+                writer.accept(format, out);
+                return null;
+            }
+            GZIPOutputStream zipped = new GZIPOutputStream(out, 64 * 1024);
+            writer.accept(format, zipped);
+            zipped.finish();
+            return null;
+        });
+    }
+
+    private static ExportService.Format parse(String format) {
+        try {
+            return ExportService.Format.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported export format: " + format);
+        }
+    }
+}
@@ -1,39 +1,132 @@
 package com.example.invoice.controller;
 
 import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import com.example.invoice.common.ConditionalRequests;
+import com.example.invoice.common.CursorPage;
+import com.example.invoice.common.FileTransfer;
+import com.example.invoice.service.BulkEmailService;
 import com.example.invoice.service.InvoiceService;
+import com.example.invoice.service.PdfArchiveService;
+import com.example.invoice.service.PdfJobService;
+import com.example.invoice.service.PdfRenderQueue;
 import com.example.invoice.service.PdfService;
+import com.example.invoice.model.EmailOutboxMessage;
 import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceRevision;
+import com.example.invoice.model.InvoiceSearchCriteria;
+import com.example.invoice.model.InvoiceSummary;
+import com.example.invoice.model.InvoiceVersion;
 import com.example.invoice.model.Payment;
 
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
 @RestController
 @RequestMapping("/api/invoices")
 public class InvoiceController {
+    private static final int MAX_SCROLL_LIMIT = 1000;
+    private static final Set<String> EXPANSIONS = Set.of("items", "payments");
+
     private final InvoiceService service;
     private final PdfService pdfService;
 
-    public InvoiceController(InvoiceService service, PdfService pdfService) {
+    private final PdfArchiveService pdfArchiveService;
+    private final PdfJobService pdfJobService;
+    private final PdfRenderQueue renderQueue;
+    private final BulkEmailService bulkEmailService;
+
+    public InvoiceController(InvoiceService service,
+                             PdfService pdfService,
+                             PdfArchiveService pdfArchiveService,
+                             PdfJobService pdfJobService,
+                             PdfRenderQueue renderQueue,
+                             BulkEmailService bulkEmailService) {
         this.service = service;
         this.pdfService = pdfService;
+        this.pdfArchiveService = pdfArchiveService;
+        this.pdfJobService = pdfJobService;
+        this.renderQueue = renderQueue;
+        this.bulkEmailService = bulkEmailService;
     }
 
+    /**
+     * Lists invoice summaries by default; {@code ?expand=items,payments} opts into the full invoice graph.
+     * Any other value is a 400, so a typo cannot switch to full invoices unnoticed.
+     */
     @GetMapping
-    public Page<Invoice> list(Pageable pageable) { return service.list(pageable); }
+    public Page<?> list(Pageable pageable, @RequestParam(required = false) Set<String> expand) {
+        if (expand == null || expand.isEmpty()) return service.listSummaries(pageable);
+        if (!EXPANSIONS.containsAll(expand)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "expand accepts items and payments, got " + expand);
+        }
+        return service.list(pageable, expand);
+    }
 
+    /**
+     * Cursor-based listing for sync jobs: {@code ?limit=N[&after=<nextCursor>]}, constant cost per page.
+     */
+    @GetMapping(params = "limit")
+    public CursorPage<InvoiceSummary> scroll(@RequestParam(required = false) String after, @RequestParam int limit) {
+        return service.scrollSummaries(after, Math.clamp(limit, 1, MAX_SCROLL_LIMIT));
+    }
+
+    /**
+     * Server-side filtering, e.g. {@code ?customerId=7&status=SENT&status=OVERDUE&dueTo=2025-01-31&tags=urgent}.
+     */
+    @GetMapping("/search")
+    public Page<InvoiceSummary> search(InvoiceSearchCriteria criteria, Pageable pageable) {
+        return service.search(criteria, pageable);
+    }
+
+    /**
+     * Strong ETag from the invoice and customer versions; {@code If-None-Match} is answered with 304 from a
+     * single version lookup, without loading the invoice. A 200 is tagged with the invoice it returns.
+     */
     @GetMapping("/{id}")
-    public Invoice get(@PathVariable Long id) { return service.get(id); }
+    public Invoice get(@PathVariable Long id, ServletWebRequest request) {
+        if (ConditionalRequests.answered(request, service.revision(id).etag())) return null;
+        Invoice invoice = service.get(id);
+        ConditionalRequests.tag(request, InvoiceRevision.of(invoice).etag());
+        return invoice;
+    }
 
     @PostMapping
     public Invoice create(@RequestBody Invoice invoice) { return service.create(invoice); }
 
+    /** Creates up to 1000 invoices in one transaction with batched inserts. */
+    @PostMapping("/bulk")
+    public List<InvoiceSummary> createBulk(@RequestBody List<Invoice> invoices) { return service.createAll(invoices); }
+
+    /** With {@code If-Match}, 412 unless the invoice is still at that ETag; the response carries the new one. */
     @PutMapping("/{id}")
-    public Invoice update(@PathVariable Long id, @RequestBody Invoice invoice) { return service.update(id, invoice); }
+    public ResponseEntity<Invoice> update(@PathVariable Long id, @RequestBody Invoice invoice, ServletWebRequest request) {
+        InvoiceRevision current = service.revision(id);
+        if (ConditionalRequests.answered(request, current.etag())) return null;
+        Invoice saved = service.update(id, invoice, ConditionalRequests.hasIfMatch(request) ? current.version() : null);
+        return ResponseEntity.ok().eTag(InvoiceRevision.of(saved).etag()).body(saved);
+    }
 
     @DeleteMapping("/{id}")
     public void delete(@PathVariable Long id) { service.delete(id); }
@@ -41,19 +134,152 @@ public class InvoiceController {
     @PostMapping("/{id}/finalize")
     public Invoice finalizeInvoice(@PathVariable Long id) { return service.finalizeInvoice(id); }
 
+    /**
+     * Finalizes a draft and queues it to be emailed, PDF attached, from the signed-in user's Gmail account;
+     * 202 with the queued message. All fields of the body are optional.
+     */
+    @PostMapping("/{id}/send-email")
+    public ResponseEntity<EmailOutboxMessage> sendEmail(@PathVariable Long id,
+                                                        @RequestBody(required = false) InvoiceService.EmailRequest request,
+                                                        Authentication authentication) {
+        return ResponseEntity.accepted().body(service.sendByEmail(id, authentication.getName(), request));
+    }
+
+    /**
+     * Emails many invoices, each with its PDF, from the signed-in user's Gmail account; 202 with the job and
+     * a {@code Location} to follow it. Drafts are finalized on the way.
+     */
+    @PostMapping("/send-email")
+    public ResponseEntity<BulkEmailService.Progress> sendEmails(@RequestBody BulkEmailService.Request request,
+                                                                Authentication authentication) {
+        BulkEmailService.Progress progress = bulkEmailService.start(request, authentication.getName());
+        return ResponseEntity.accepted().location(URI.create("/api/invoices/send-email/" + progress.id())).body(progress);
+    }
+
+    /** Progress of a bulk send; only the node that started it knows the job (see {@link BulkEmailService}). */
+    @GetMapping("/send-email/{jobId}")
+    public BulkEmailService.Progress sendEmailsProgress(@PathVariable String jobId, Authentication authentication) {
+        return bulkEmailService.progress(jobId, authentication.getName());
+    }
+
     @PostMapping("/{id}/payments")
     public Payment addPayment(@PathVariable Long id, @RequestBody Payment p) { return service.addPayment(id, p); }
 
+    /**
+     * Finalized invoices are served from their stored snapshot by zero-copy transfer, validated by content
+     * hash. Others come from the rendered-PDF cache; {@code If-None-Match}/{@code If-Modified-Since} are
+     * answered with 304 from a single version lookup. Cache misses render on the PDF bulkhead, not on the
+     * request thread, streaming straight into the response, and get 429 when its queue is full.
+     */
     @GetMapping("/{id}/pdf")
-    public ResponseEntity<ByteArrayResource> pdf(@PathVariable Long id) {
-        byte[] bytes = pdfService.renderInvoicePdf(id);
-        String filename = service.get(id).getInvoiceNumber();
-        if (filename == null || filename.isBlank()) filename = "invoice-" + id;
-        ByteArrayResource resource = new ByteArrayResource(bytes);
+    public WebAsyncTask<Void> pdf(@PathVariable Long id, ServletWebRequest request, HttpServletResponse response)
+            throws IOException {
+        InvoiceVersion version = pdfService.version(id);
+        if (version.pdfSnapshotSha256() != null) {
+            if (!request.checkNotModified(version.etag())) sendSnapshot(version, request);
+            return null;
+        }
+        if (request.checkNotModified(version.etag(), version.modifiedAt().toEpochMilli())) return null;
+        byte[] cached = pdfService.cachedOnly(version);
+        if (cached != null) {
+            pdfHeaders(version, response);
+            response.setContentLength(cached.length);
+            response.getOutputStream().write(cached);
+            return null;
+        }
+        return new WebAsyncTask<>(null, renderQueue.taskExecutor(), () -> {
+            pdfHeaders(version, response);
+            pdfService.writeInvoicePdf(version, response.getOutputStream());
+            return null;
+        });
+    }
+
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<Void> lostUpdate(ServletWebRequest request) {
+        return ResponseEntity.status(ConditionalRequests.lostUpdate(request)).build();
+    }
+
+    /** The render queue was full when a PDF download tried to start. */
+    @ExceptionHandler(TaskRejectedException.class)
+    public ResponseEntity<Void> renderQueueFull() {
+        return tooManyRequests();
+    }
+
+    /** Queues a render and returns 202 with the job; poll {@code /api/invoices/pdf/jobs/{jobId}}. */
+    @PostMapping("/{id}/pdf/jobs")
+    public ResponseEntity<PdfJobService.JobStatus> submitPdfJob(@PathVariable Long id) {
+        try {
+            PdfJobService.JobStatus job = pdfJobService.submit(id);
+            return ResponseEntity.accepted().location(URI.create("/api/invoices/pdf/jobs/" + job.id())).body(job);
+        } catch (RejectedExecutionException busy) {
+            return tooManyRequests();
+        }
+    }
+
+    @GetMapping("/pdf/jobs/{jobId}")
+    public PdfJobService.JobStatus pdfJob(@PathVariable String jobId) { return pdfJobService.status(jobId); }
+
+    /** The finished PDF; 409 while the job is still queued or running, or if it failed. */
+    @GetMapping("/pdf/jobs/{jobId}/result")
+    public ResponseEntity<ByteArrayResource> pdfJobResult(@PathVariable String jobId) {
+        if (pdfJobService.status(jobId).status() != PdfJobService.Status.DONE) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        PdfJobService.Result result = pdfJobService.result(jobId);
         return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + filename + ".pdf")
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + result.filename() + ".pdf")
                 .contentType(MediaType.APPLICATION_PDF)
-                .contentLength(bytes.length)
-                .body(resource);
+                .contentLength(result.bytes().length)
+                .body(new ByteArrayResource(result.bytes()));
+    }
+
+    /**
+     * ZIP of invoice PDFs selected by the search filters (same parameters as {@code /search}),
+     * e.g. {@code ?status=SENT&issuedFrom=2025-01-01&issuedTo=2025-01-31}.
+     */
+    @GetMapping("/pdf-archive")
+    public ResponseEntity<StreamingResponseBody> pdfArchive(InvoiceSearchCriteria criteria) {
+        return zip(pdfArchiveService.resolve(criteria));
+    }
+
+    /** ZIP of invoice PDFs for an explicit JSON array of ids. */
+    @PostMapping("/pdf-archive")
+    public ResponseEntity<StreamingResponseBody> pdfArchive(@RequestBody List<Long> ids) {
+        return zip(pdfArchiveService.resolve(ids));
+    }
+
+    private ResponseEntity<StreamingResponseBody> zip(List<InvoiceVersion> versions) {
+        StreamingResponseBody body = out -> pdfArchiveService.writeZip(versions, out);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=invoices.zip")
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .body(body);
+    }
+
+    private void sendSnapshot(InvoiceVersion version, ServletWebRequest request) throws IOException {
+        Path file = pdfService.snapshotPath(version);
+        long length = Files.size(file);
+        HttpServletResponse response = request.getResponse();
+        response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+        response.setContentLengthLong(length);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().cachePrivate().getHeaderValue());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + filename(version) + ".pdf");
+        FileTransfer.send(request.getRequest(), response, file, 0, length);
+    }
+
+    private static String filename(InvoiceVersion version) {
+        String number = version.invoiceNumber();
+        return number == null || number.isBlank() ? "invoice-" + version.id() : number;
+    }
+
+    /** ETag and Last-Modified are already on the response from {@code checkNotModified}. */
+    private static void pdfHeaders(InvoiceVersion version, HttpServletResponse response) {
+        response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().cachePrivate().getHeaderValue());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + filename(version) + ".pdf");
+    }
+
+    private static <T> ResponseEntity<T> tooManyRequests() {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "1").build();
     }
 }
@@ -0,0 +1,7 @@
+package com.example.invoice.model;
+
+import java.time.Instant;
+
+/** Where one invoice's email stands, read straight from the outbox. */
+public record EmailDelivery(Long invoiceId, String recipient, EmailStatus status, int attempts, Instant sentAt,
+                            String lastError) {}
@@ -0,0 +1,95 @@
+package com.example.invoice.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * An email queued with the change that caused it and delivered later by the outbox dispatcher. While
+ * pending, {@code nextAttemptAt} is when it is due; a dispatcher claims it by moving that forward.
+ */
+@Entity
+@Table(name = "email_outbox")
+public class EmailOutboxMessage {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "email_outbox_seq")
+    @SequenceGenerator(name = "email_outbox_seq", sequenceName = "email_outbox_seq", allocationSize = 50)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "invoice_id")
+    @JsonIgnore
+    private Invoice invoice;
+
+    /** Whose Gmail account sends it. */
+    @Column(name = "principal_name", nullable = false)
+    @JsonIgnore
+    private String principalName;
+
+    /** Set for the emails of one bulk send. */
+    @Column(name = "batch_id", length = 36)
+    @JsonIgnore
+    private String batchId;
+
+    /** Sent with the invoice's PDF, as it is at delivery time. */
+    @Column(name = "attach_pdf", nullable = false)
+    private boolean attachPdf;
+
+    @Column(nullable = false, length = 320)
+    private String recipient;
+
+    @Column(nullable = false, length = 998)
+    private String subject;
+
+    @Column(nullable = false, columnDefinition = "text")
+    @JsonIgnore
+    private String body;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private EmailStatus status = EmailStatus.PENDING;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private Instant nextAttemptAt = Instant.now();
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt = Instant.now();
+
+    @Column(name = "sent_at")
+    private Instant sentAt;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    public Invoice getInvoice() { return invoice; }
+    public void setInvoice(Invoice invoice) { this.invoice = invoice; }
+    public String getPrincipalName() { return principalName; }
+    public void setPrincipalName(String principalName) { this.principalName = principalName; }
+    public String getBatchId() { return batchId; }
+    public void setBatchId(String batchId) { this.batchId = batchId; }
+    public boolean isAttachPdf() { return attachPdf; }
+    public void setAttachPdf(boolean attachPdf) { this.attachPdf = attachPdf; }
+    public String getRecipient() { return recipient; }
+    public void setRecipient(String recipient) { this.recipient = recipient; }
+    public String getSubject() { return subject; }
+    public void setSubject(String subject) { this.subject = subject; }
+    public String getBody() { return body; }
+    public void setBody(String body) { this.body = body; }
+    public EmailStatus getStatus() { return status; }
+    public void setStatus(EmailStatus status) { this.status = status; }
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+    public Instant getNextAttemptAt() { return nextAttemptAt; }
+    public void setNextAttemptAt(Instant nextAttemptAt) { this.nextAttemptAt = nextAttemptAt; }
+    public Instant getCreatedAt() { return createdAt; }
+    public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
+    public Instant getSentAt() { return sentAt; }
+    public void setSentAt(Instant sentAt) { this.sentAt = sentAt; }
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+}
@@ -0,0 +1,8 @@
+package com.example.invoice.model;
+
+public enum EmailStatus {
+    PENDING,
+    SENT,
+    /** Gave up: a permanent error, or out of attempts. */
+    DEAD
+}
@@ -7,12 +7,27 @@ import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.hibernate.annotations.BatchSize;
 
+/**
+ * Collections are lazy; callers pick a fetch plan per use case through the named graphs below
+ * (only one bag may be join-fetched at a time) and batch fetching covers the rest.
+ */
 @Entity
 @Table(name = "invoice")
+@NamedEntityGraph(name = Invoice.WITH_ITEMS, attributeNodes = {
+        @NamedAttributeNode("customer"),
+        @NamedAttributeNode("items")
+})
+@NamedEntityGraph(name = Invoice.WITH_PAYMENTS, attributeNodes = @NamedAttributeNode("payments"))
 public class Invoice {
+    public static final String WITH_ITEMS = "Invoice.withItems";
+    public static final String WITH_PAYMENTS = "Invoice.withPayments";
+
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "invoice_seq")
+    @SequenceGenerator(name = "invoice_seq", sequenceName = "invoice_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "invoice_number", unique = true)
@@ -75,13 +90,26 @@ public class Invoice {
     @Column(name = "updated_at")
     private Instant updatedAt;
 
-    @OneToMany(mappedBy = "invoice", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.EAGER)
+    /** Served, with the customer's, as the ETag rather than in the body. */
+    @Version
+    @Column(nullable = false)
+    @JsonIgnore
+    private Long version;
+
+    /** SHA-256 of the stored PDF rendered at finalize; cleared when a payment changes the printed balance. */
+    @Column(name = "pdf_snapshot_sha256", length = 64)
+    @JsonIgnore
+    private String pdfSnapshotSha256;
+
+    @OneToMany(mappedBy = "invoice", cascade = CascadeType.ALL, orphanRemoval = true)
+    @BatchSize(size = 50)
     private List<InvoiceItem> items = new ArrayList<>();
 
-    @OneToMany(mappedBy = "invoice", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.EAGER)
+    @OneToMany(mappedBy = "invoice", cascade = CascadeType.ALL, orphanRemoval = true)
+    @BatchSize(size = 50)
     private List<Payment> payments = new ArrayList<>();
 
-    @OneToMany(mappedBy = "invoice", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.EAGER)
+    @OneToMany(mappedBy = "invoice", cascade = CascadeType.ALL, orphanRemoval = true)
     @JsonIgnore
     private List<InvoiceAttachment> attachments = new ArrayList<>();
 
@@ -125,6 +153,10 @@ public class Invoice {
     public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
     public Instant getUpdatedAt() { return updatedAt; }
     public void setUpdatedAt(Instant updatedAt) { this.updatedAt = updatedAt; }
+    public Long getVersion() { return version; }
+    public void setVersion(Long version) { this.version = version; }
+    public String getPdfSnapshotSha256() { return pdfSnapshotSha256; }
+    public void setPdfSnapshotSha256(String pdfSnapshotSha256) { this.pdfSnapshotSha256 = pdfSnapshotSha256; }
     public List<InvoiceItem> getItems() { return items; }
     public void setItems(List<InvoiceItem> items) { this.items = items; }
     public List<Payment> getPayments() { return payments; }
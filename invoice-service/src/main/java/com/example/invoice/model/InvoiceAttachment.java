@@ -8,10 +8,11 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 @Table(name = "invoice_attachment")
 public class InvoiceAttachment {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "invoice_attachment_seq")
+    @SequenceGenerator(name = "invoice_attachment_seq", sequenceName = "invoice_attachment_seq", allocationSize = 50)
     private Long id;
 
-    @ManyToOne(optional = false)
+    @ManyToOne(optional = false, fetch = FetchType.LAZY)
     @JoinColumn(name = "invoice_id")
     @JsonIgnore
     private Invoice invoice;
@@ -28,6 +29,16 @@ public class InvoiceAttachment {
     @Column(name = "storage_key", nullable = false)
     private String storageKey;
 
+    /** {@code gzip} when the blob is compressed at rest; downloads decode it or pass it through. */
+    @Column(name = "content_encoding", length = 20)
+    @JsonIgnore
+    private String contentEncoding;
+
+    /** CRC-32 of the original bytes; {@code null} for attachments stored before it was recorded. */
+    @Column(name = "crc32")
+    @JsonIgnore
+    private Long crc32;
+
     @Column(name = "created_at", nullable = false)
     private Instant createdAt = Instant.now();
 
@@ -43,6 +54,10 @@ public class InvoiceAttachment {
     public void setSize(long size) { this.size = size; }
     public String getStorageKey() { return storageKey; }
     public void setStorageKey(String storageKey) { this.storageKey = storageKey; }
+    public String getContentEncoding() { return contentEncoding; }
+    public void setContentEncoding(String contentEncoding) { this.contentEncoding = contentEncoding; }
+    public Long getCrc32() { return crc32; }
+    public void setCrc32(Long crc32) { this.crc32 = crc32; }
     public Instant getCreatedAt() { return createdAt; }
     public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
 }
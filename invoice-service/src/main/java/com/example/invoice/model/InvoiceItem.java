@@ -9,10 +9,11 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 @Table(name = "invoice_item")
 public class InvoiceItem {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "invoice_item_seq")
+    @SequenceGenerator(name = "invoice_item_seq", sequenceName = "invoice_item_seq", allocationSize = 50)
     private Long id;
 
-    @ManyToOne(optional = false)
+    @ManyToOne(optional = false, fetch = FetchType.LAZY)
     @JoinColumn(name = "invoice_id")
     @JsonIgnore
     private Invoice invoice;
@@ -0,0 +1,17 @@
+package com.example.invoice.model;
+
+/**
+ * What the JSON representation of an invoice depends on: its own version and that of the customer it
+ * embeds. Read without loading the invoice, so conditional requests are answered from one small query.
+ */
+public record InvoiceRevision(long version, long customerVersion) {
+
+    public static InvoiceRevision of(Invoice invoice) {
+        return new InvoiceRevision(invoice.getVersion(), invoice.getCustomer().getVersion());
+    }
+
+    /** Strong: the same versions always serialize to the same body. */
+    public String etag() {
+        return "\"" + version + "." + customerVersion + "\"";
+    }
+}
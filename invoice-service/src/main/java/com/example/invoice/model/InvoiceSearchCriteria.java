@@ -0,0 +1,26 @@
+package com.example.invoice.model;
+
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Set;
+
+/**
+ * Optional filters for invoice search; a null (or empty) component means "no constraint".
+ * Ranges are inclusive.
+ */
+public record InvoiceSearchCriteria(
+        Long customerId,
+        Set<InvoiceStatus> status,
+        @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate issuedFrom,
+        @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate issuedTo,
+        @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate dueFrom,
+        @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate dueTo,
+        BigDecimal minTotal,
+        BigDecimal maxTotal,
+        BigDecimal minBalanceDue,
+        BigDecimal maxBalanceDue,
+        String currency,
+        Set<String> tags) {
+}
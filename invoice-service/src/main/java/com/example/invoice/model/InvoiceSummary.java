@@ -0,0 +1,28 @@
+package com.example.invoice.model;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Read-only row for invoice list screens, built directly by JPQL constructor
+ * expressions so no {@link Invoice} graph is hydrated.
+ */
+public record InvoiceSummary(
+        Long id,
+        String invoiceNumber,
+        Long customerId,
+        String customerName,
+        LocalDate issueDate,
+        LocalDate dueDate,
+        InvoiceStatus status,
+        String currency,
+        BigDecimal total,
+        BigDecimal balanceDue) {
+
+    public static InvoiceSummary of(Invoice invoice) {
+        Customer customer = invoice.getCustomer();
+        return new InvoiceSummary(invoice.getId(), invoice.getInvoiceNumber(), customer.getId(), customer.getName(),
+                invoice.getIssueDate(), invoice.getDueDate(), invoice.getStatus(), invoice.getCurrency(),
+                invoice.getTotal(), invoice.getBalanceDue());
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.invoice.model;
+
+import java.time.Instant;
+
+/**
+ * What a rendered invoice document depends on, read without loading the invoice: the number (for the
+ * download filename), the latest change to the invoice or its customer, and the stored snapshot of a
+ * finalized invoice, if there is a current one.
+ */
+public record InvoiceVersion(Long id, String invoiceNumber, Instant modifiedAt, InvoiceStatus status,
+                             String pdfSnapshotSha256) {
+
+    public InvoiceVersion(Long id, String invoiceNumber, Instant invoiceModifiedAt, Instant customerModifiedAt,
+                          InvoiceStatus status, String pdfSnapshotSha256) {
+        this(id, invoiceNumber, latest(invoiceModifiedAt, customerModifiedAt), status, pdfSnapshotSha256);
+    }
+
+    public static InvoiceVersion of(Invoice invoice) {
+        Instant invoiceModifiedAt = invoice.getUpdatedAt() != null ? invoice.getUpdatedAt() : invoice.getCreatedAt();
+        return new InvoiceVersion(invoice.getId(), invoice.getInvoiceNumber(), invoiceModifiedAt,
+                invoice.getCustomer().getUpdatedAt(), invoice.getStatus(), invoice.getPdfSnapshotSha256());
+    }
+
+    /**
+     * Snapshots are validated by content hash (strong); live renders by version (weak), since re-renders
+     * of the same version are equivalent but not byte-identical.
+     */
+    public String etag() {
+        if (pdfSnapshotSha256 != null) return "\"" + pdfSnapshotSha256 + "\"";
+        return "W/\"" + id + "-" + modifiedAt.toEpochMilli() + "\"";
+    }
+
+    private static Instant latest(Instant a, Instant b) {
+        if (b == null || (a != null && a.isAfter(b))) return a;
+        return b;
+    }
+}
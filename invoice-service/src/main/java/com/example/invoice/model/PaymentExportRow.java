@@ -0,0 +1,17 @@
+package com.example.invoice.model;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * Flat payment row for ledger exports, projected without loading the owning invoice.
+ */
+public record PaymentExportRow(
+        Long id,
+        Long invoiceId,
+        String invoiceNumber,
+        BigDecimal amount,
+        PaymentMethod method,
+        String reference,
+        Instant paidAt) {
+}
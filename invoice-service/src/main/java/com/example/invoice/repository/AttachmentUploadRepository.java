@@ -0,0 +1,34 @@
+package com.example.invoice.repository;
+
+import com.example.invoice.model.AttachmentUpload;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+public interface AttachmentUploadRepository extends JpaRepository<AttachmentUpload, String> {
+
+    @Query(value = "select chunk_index from attachment_upload_chunk where upload_id = :id order by chunk_index",
+            nativeQuery = true)
+    List<Integer> findReceivedChunks(String id);
+
+    /** Idempotent, so a chunk can be re-sent after a dropped connection. */
+    @Transactional
+    @Modifying
+    @Query(value = """
+            insert into attachment_upload_chunk (upload_id, chunk_index)
+            select :id, :index where not exists (
+                select 1 from attachment_upload_chunk where upload_id = :id and chunk_index = :index)
+            """, nativeQuery = true)
+    int markChunkReceived(String id, int index);
+
+    @Query("select u.id from AttachmentUpload u where u.id in :ids")
+    List<String> findExistingIds(Collection<String> ids);
+
+    List<AttachmentUpload> findByCreatedAtBefore(Instant cutoff, Limit limit);
+}
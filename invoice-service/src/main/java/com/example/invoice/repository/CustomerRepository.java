@@ -1,10 +1,43 @@
 package com.example.invoice.repository;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 import com.example.invoice.model.Customer;
+
+import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
 
 public interface CustomerRepository extends JpaRepository<Customer, Long> {
     boolean existsByEmail(String email);
     Optional<Customer> findByEmail(String email);
+
+    @Query("select c from Customer c order by c.createdAt, c.id")
+    List<Customer> findFirst(Limit limit);
+
+    /** Keyset continuation on idx_customer_created_at_id; no offset, no count. */
+    @Query("select c from Customer c where (c.createdAt, c.id) > (:createdAt, :id) order by c.createdAt, c.id")
+    List<Customer> findAfter(Instant createdAt, Long id, Limit limit);
+
+    /** For conditional requests; reads one column of one row. */
+    @Query("select c.version from Customer c where c.id = :id")
+    Optional<Long> findVersionById(Long id);
+
+    /** Joins the caller's transaction, so the change is visible to other nodes exactly when it commits. */
+    @Transactional
+    @Modifying
+    @Query(value = "insert into customer_change (customer_id, changed_at) values (:id, :changedAt)", nativeQuery = true)
+    int recordChange(Long id, Instant changedAt);
+
+    /** {@code [change id, customer id]} pairs recorded after {@code since}. */
+    @Query(value = "select id, customer_id from customer_change where changed_at > :since", nativeQuery = true)
+    List<Object[]> findChangesSince(Instant since);
+
+    @Transactional
+    @Modifying
+    @Query(value = "delete from customer_change where changed_at < :cutoff", nativeQuery = true)
+    int deleteChangesBefore(Instant cutoff);
 }
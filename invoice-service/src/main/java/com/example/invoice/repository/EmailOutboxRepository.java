@@ -0,0 +1,75 @@
+package com.example.invoice.repository;
+
+import com.example.invoice.model.EmailDelivery;
+import com.example.invoice.model.EmailOutboxMessage;
+import com.example.invoice.model.EmailStatus;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+public interface EmailOutboxRepository extends JpaRepository<EmailOutboxMessage, Long> {
+
+    @Query("""
+            select m from EmailOutboxMessage m where m.status = :status and m.nextAttemptAt <= :now
+            order by m.nextAttemptAt, m.id
+            """)
+    List<EmailOutboxMessage> findDue(EmailStatus status, Instant now, Limit limit);
+
+    /**
+     * Moves a pending message's next attempt from {@code due} to {@code until}; 0 when another dispatcher
+     * got there first. Claims a message for sending, and defers one that is throttled.
+     */
+    @Transactional
+    @Modifying
+    @Query("""
+            update EmailOutboxMessage m set m.nextAttemptAt = :until
+            where m.id = :id and m.status = com.example.invoice.model.EmailStatus.PENDING and m.nextAttemptAt = :due
+            """)
+    int claim(Long id, Instant due, Instant until);
+
+    @Transactional
+    @Modifying
+    @Query("""
+            update EmailOutboxMessage m set m.status = com.example.invoice.model.EmailStatus.SENT,
+                m.attempts = m.attempts + 1, m.sentAt = :sentAt, m.lastError = null
+            where m.id = :id
+            """)
+    int markSent(Long id, Instant sentAt);
+
+    @Transactional
+    @Modifying
+    @Query("""
+            update EmailOutboxMessage m set m.attempts = m.attempts + 1, m.nextAttemptAt = :next, m.lastError = :error
+            where m.id = :id
+            """)
+    int reschedule(Long id, Instant next, String error);
+
+    @Transactional
+    @Modifying
+    @Query("""
+            update EmailOutboxMessage m set m.status = com.example.invoice.model.EmailStatus.DEAD,
+                m.attempts = m.attempts + 1, m.lastError = :error
+            where m.id = :id
+            """)
+    int markDead(Long id, String error);
+
+    long countByStatus(EmailStatus status);
+
+    @Query("select min(m.createdAt) from EmailOutboxMessage m where m.status = :status")
+    Optional<Instant> findOldestCreatedAt(EmailStatus status);
+
+    List<EmailOutboxMessage> findByInvoice_Id(Long invoiceId);
+
+    @Query("""
+            select new com.example.invoice.model.EmailDelivery(m.invoice.id, m.recipient, m.status, m.attempts,
+                m.sentAt, m.lastError)
+            from EmailOutboxMessage m where m.batchId = :batchId order by m.id
+            """)
+    List<EmailDelivery> findDeliveriesByBatchId(String batchId);
+}
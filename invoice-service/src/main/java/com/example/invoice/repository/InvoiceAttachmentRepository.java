@@ -1,10 +1,27 @@
 package com.example.invoice.repository;
 
 import com.example.invoice.model.InvoiceAttachment;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface InvoiceAttachmentRepository extends JpaRepository<InvoiceAttachment, Long> {
     List<InvoiceAttachment> findByInvoice_Id(Long invoiceId);
+
+    /** How many attachments share the blob stored under {@code storageKey}. */
+    long countByStorageKey(String storageKey);
+
+    /** Every attachment of the customer's invoices, with the invoice, grouped by invoice. */
+    @Query("select a from InvoiceAttachment a join fetch a.invoice i where i.customer.id = :customerId order by i.id, a.id")
+    List<InvoiceAttachment> findByCustomerIdWithInvoice(Long customerId);
+
+    /** Which of {@code storageKeys} some attachment still points at; one indexed lookup per batch. */
+    @Query("select distinct a.storageKey from InvoiceAttachment a where a.storageKey in :storageKeys")
+    List<String> findReferencedStorageKeys(Collection<String> storageKeys);
+
+    /** Keyset page over all attachments by id. */
+    List<InvoiceAttachment> findByIdGreaterThanOrderById(Long id, Limit limit);
 }
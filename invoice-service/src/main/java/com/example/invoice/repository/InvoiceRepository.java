@@ -1,8 +1,97 @@
 package com.example.invoice.repository;
 
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.transaction.annotation.Transactional;
+import jakarta.persistence.QueryHint;
 import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceRevision;
+import com.example.invoice.model.InvoiceSummary;
+import com.example.invoice.model.InvoiceVersion;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.HibernateHints.HINT_READ_ONLY;
+
+public interface InvoiceRepository extends JpaRepository<Invoice, Long>, InvoiceSearchRepository {
+    String SUMMARY_SELECT = """
+            select new com.example.invoice.model.InvoiceSummary(
+                i.id, i.invoiceNumber, c.id, c.name, i.issueDate, i.dueDate,
+                i.status, i.currency, i.total, i.balanceDue)
+            from Invoice i join i.customer c
+            """;
 
-public interface InvoiceRepository extends JpaRepository<Invoice, Long> {
     boolean existsByInvoiceNumber(String invoiceNumber);
+
+    @Override
+    @EntityGraph(attributePaths = "customer")
+    Page<Invoice> findAll(Pageable pageable);
+
+    @EntityGraph(Invoice.WITH_ITEMS)
+    Optional<Invoice> findWithItemsById(Long id);
+
+    @EntityGraph(Invoice.WITH_PAYMENTS)
+    Optional<Invoice> findWithPaymentsById(Long id);
+
+    /** Single-row lookup for conditional GETs on rendered documents; no items, payments or entity state. */
+    @Query("""
+            select new com.example.invoice.model.InvoiceVersion(
+                i.id, i.invoiceNumber, coalesce(i.updatedAt, i.createdAt), c.updatedAt, i.status, i.pdfSnapshotSha256)
+            from Invoice i join i.customer c where i.id = :id
+            """)
+    Optional<InvoiceVersion> findVersionById(Long id);
+
+    @Query("""
+            select new com.example.invoice.model.InvoiceVersion(
+                i.id, i.invoiceNumber, coalesce(i.updatedAt, i.createdAt), c.updatedAt, i.status, i.pdfSnapshotSha256)
+            from Invoice i join i.customer c where i.id in :ids order by i.id
+            """)
+    List<InvoiceVersion> findVersionsByIdIn(Collection<Long> ids);
+
+    /** Single-row lookup for conditional requests on the JSON representation. */
+    @Query("select new com.example.invoice.model.InvoiceRevision(i.version, c.version) from Invoice i join i.customer c where i.id = :id")
+    Optional<InvoiceRevision> findRevisionById(Long id);
+
+    /**
+     * Records a snapshot rendered outside the invoice's own transaction, only if the invoice is still at
+     * the state it was rendered from; returns 0 when a payment or edit got there first.
+     */
+    @Transactional
+    @Modifying
+    @Query("""
+            update Invoice i set i.pdfSnapshotSha256 = :sha256
+            where i.id = :id and i.pdfSnapshotSha256 is null and coalesce(i.updatedAt, i.createdAt) = :renderedAt
+            """)
+    int attachPdfSnapshot(Long id, String sha256, Instant renderedAt);
+
+    /** Which of {@code sha256s} are the current snapshot of some invoice. */
+    @Query("select i.pdfSnapshotSha256 from Invoice i where i.pdfSnapshotSha256 in :sha256s")
+    List<String> findReferencedPdfSnapshots(Collection<String> sha256s);
+
+    @Query(value = SUMMARY_SELECT, countQuery = "select count(i) from Invoice i")
+    Page<InvoiceSummary> findSummaries(Pageable pageable);
+
+    @Query(SUMMARY_SELECT + "order by i.issueDate, i.id")
+    List<InvoiceSummary> findSummariesFirst(Limit limit);
+
+    /** Forward-only cursor over every invoice; must be consumed inside a read-only transaction. */
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "500"), @QueryHint(name = HINT_READ_ONLY, value = "true")})
+    @Query(SUMMARY_SELECT + "order by i.id")
+    Stream<InvoiceSummary> streamSummaries();
+
+    /** Keyset continuation on idx_invoice_issue_date_id; no offset, no count. */
+    @Query(SUMMARY_SELECT + "where (i.issueDate, i.id) > (:issueDate, :id) order by i.issueDate, i.id")
+    List<InvoiceSummary> findSummariesAfter(LocalDate issueDate, Long id, Limit limit);
 }
@@ -0,0 +1,10 @@
+package com.example.invoice.repository;
+
+import com.example.invoice.model.InvoiceSearchCriteria;
+import com.example.invoice.model.InvoiceSummary;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+public interface InvoiceSearchRepository {
+    Page<InvoiceSummary> search(InvoiceSearchCriteria criteria, Pageable pageable);
+}
@@ -0,0 +1,109 @@
+package com.example.invoice.repository;
+
+import com.example.invoice.model.Customer;
+import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceSearchCriteria;
+import com.example.invoice.model.InvoiceSummary;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.data.support.PageableExecutionUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compiles {@link InvoiceSearchCriteria} into one summary select. Equality filters
+ * (customer, status) come first so the planner can use idx_invoice_customer_status_date
+ * and the V4 status indexes; the count runs only when the page is full.
+ */
+class InvoiceSearchRepositoryImpl implements InvoiceSearchRepository {
+    private static final char LIKE_ESCAPE = '\\';
+    private static final Sort DEFAULT_SORT = Sort.by(Sort.Order.desc("issueDate"), Sort.Order.desc("id"));
+
+    @PersistenceContext
+    private EntityManager em;
+
+    @Override
+    public Page<InvoiceSummary> search(InvoiceSearchCriteria criteria, Pageable pageable) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<InvoiceSummary> query = cb.createQuery(InvoiceSummary.class);
+        Root<Invoice> i = query.from(Invoice.class);
+        Join<Invoice, Customer> c = i.join("customer");
+        query.select(cb.construct(InvoiceSummary.class,
+                i.get("id"), i.get("invoiceNumber"), c.get("id"), c.get("name"), i.get("issueDate"),
+                i.get("dueDate"), i.get("status"), i.get("currency"), i.get("total"), i.get("balanceDue")));
+        query.where(predicates(cb, i, criteria));
+        Sort sort = pageable.getSort().isSorted() ? pageable.getSort() : DEFAULT_SORT;
+        query.orderBy(QueryUtils.toOrders(sort, i, cb));
+
+        var typed = em.createQuery(query);
+        if (pageable.isPaged()) {
+            typed.setFirstResult((int) pageable.getOffset());
+            typed.setMaxResults(pageable.getPageSize());
+        }
+        List<InvoiceSummary> content = typed.getResultList();
+        return PageableExecutionUtils.getPage(content, pageable, () -> count(criteria));
+    }
+
+    private long count(InvoiceSearchCriteria criteria) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<Invoice> i = query.from(Invoice.class);
+        query.select(cb.count(i)).where(predicates(cb, i, criteria));
+        return em.createQuery(query).getSingleResult();
+    }
+
+    private Predicate[] predicates(CriteriaBuilder cb, Root<Invoice> i, InvoiceSearchCriteria criteria) {
+        List<Predicate> where = new ArrayList<>();
+        if (criteria.customerId() != null) {
+            where.add(cb.equal(i.get("customer").get("id"), criteria.customerId()));
+        }
+        if (criteria.status() != null && !criteria.status().isEmpty()) {
+            where.add(i.get("status").in(criteria.status()));
+        }
+        between(cb, where, i.get("issueDate"), criteria.issuedFrom(), criteria.issuedTo());
+        between(cb, where, i.get("dueDate"), criteria.dueFrom(), criteria.dueTo());
+        between(cb, where, i.get("total"), criteria.minTotal(), criteria.maxTotal());
+        between(cb, where, i.get("balanceDue"), criteria.minBalanceDue(), criteria.maxBalanceDue());
+        if (criteria.currency() != null && !criteria.currency().isBlank()) {
+            where.add(cb.equal(i.get("currency"), criteria.currency().trim().toUpperCase(Locale.ROOT)));
+        }
+        if (criteria.tags() != null) {
+            // tags is a comma-separated column; match whole tags by fencing both sides with commas
+            var fenced = cb.lower(cb.concat(cb.concat(",", cb.function("replace", String.class,
+                    i.get("tags"), cb.literal(" "), cb.literal(""))), ","));
+            criteria.tags().stream()
+                    .map(t -> t.trim().toLowerCase(Locale.ROOT))
+                    .filter(t -> !t.isEmpty())
+                    .forEach(t -> where.add(cb.like(fenced, "%," + escapeLike(t) + ",%", LIKE_ESCAPE)));
+        }
+        return where.toArray(Predicate[]::new);
+    }
+
+    /** A tag is matched literally, so {@code %} and {@code _} in it are not wildcards. */
+    private static String escapeLike(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (char ch : value.toCharArray()) {
+            if (ch == LIKE_ESCAPE || ch == '%' || ch == '_') escaped.append(LIKE_ESCAPE);
+            escaped.append(ch);
+        }
+        return escaped.toString();
+    }
+
+    private static <T extends Comparable<? super T>> void between(CriteriaBuilder cb, List<Predicate> where,
+                                                                   Path<T> path, T from, T to) {
+        if (from != null) where.add(cb.greaterThanOrEqualTo(path, from));
+        if (to != null) where.add(cb.lessThanOrEqualTo(path, to));
+    }
+}
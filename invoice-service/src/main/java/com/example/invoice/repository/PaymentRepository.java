@@ -1,6 +1,26 @@
 package com.example.invoice.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import com.example.invoice.model.Payment;
+import com.example.invoice.model.PaymentExportRow;
+import jakarta.persistence.QueryHint;
 
-public interface PaymentRepository extends JpaRepository<Payment, Long> {}
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.HibernateHints.HINT_READ_ONLY;
+
+public interface PaymentRepository extends JpaRepository<Payment, Long> {
+
+    /** Forward-only cursor over every payment; must be consumed inside a read-only transaction. */
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "500"), @QueryHint(name = HINT_READ_ONLY, value = "true")})
+    @Query("""
+            select new com.example.invoice.model.PaymentExportRow(
+                p.id, i.id, i.invoiceNumber, p.amount, p.method, p.reference, p.paidAt)
+            from Payment p join p.invoice i
+            order by p.id
+            """)
+    Stream<PaymentExportRow> streamExportRows();
+}
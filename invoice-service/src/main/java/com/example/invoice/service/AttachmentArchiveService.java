@@ -0,0 +1,143 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceAttachment;
+import com.example.invoice.model.InvoiceVersion;
+import com.example.invoice.repository.CustomerRepository;
+import com.example.invoice.repository.InvoiceAttachmentRepository;
+import com.example.invoice.repository.InvoiceRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.InvalidMimeTypeException;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams the stored attachments of an invoice, or of all a customer's invoices, into one ZIP. Files go
+ * from storage into the response one at a time, without staging. Types that are compressed already
+ * ({@code app.attachments.zip.stored-types}) become STORED entries using the size and CRC-32 recorded at
+ * upload, so they cost no deflate CPU; everything else is deflated at the fastest level.
+ */
+@Service
+public class AttachmentArchiveService {
+    private static final Logger log = LoggerFactory.getLogger(AttachmentArchiveService.class);
+
+    /** What goes into one ZIP; customer archives put each invoice's files in a folder named after it. */
+    public record Archive(String filename, List<InvoiceAttachment> attachments, boolean byInvoice) {}
+
+    private final InvoiceRepository invoiceRepository;
+    private final CustomerRepository customerRepository;
+    private final InvoiceAttachmentRepository attachmentRepository;
+    private final AttachmentStorageService storage;
+    private final List<MimeType> storedTypes;
+
+    public AttachmentArchiveService(InvoiceRepository invoiceRepository,
+                                    CustomerRepository customerRepository,
+                                    InvoiceAttachmentRepository attachmentRepository,
+                                    AttachmentStorageService storage,
+                                    @Value("${app.attachments.zip.stored-types:image/jpeg,image/png,image/gif,image/webp,"
+                                            + "application/pdf,application/zip,application/gzip,video/*,audio/*}")
+                                    String storedTypes) {
+        this.invoiceRepository = invoiceRepository;
+        this.customerRepository = customerRepository;
+        this.attachmentRepository = attachmentRepository;
+        this.storage = storage;
+        this.storedTypes = MimeTypeUtils.parseMimeTypes(storedTypes);
+    }
+
+    /** Fails before anything is streamed if the invoice is unknown. */
+    public Archive forInvoice(Long invoiceId) {
+        InvoiceVersion version = invoiceRepository.findVersionById(invoiceId)
+                .orElseThrow(() -> new NoSuchElementException("Invoice " + invoiceId + " not found"));
+        return new Archive(name(version.invoiceNumber(), invoiceId) + "-attachments.zip",
+                attachmentRepository.findByInvoice_Id(invoiceId), false);
+    }
+
+    public Archive forCustomer(Long customerId) {
+        if (!customerRepository.existsById(customerId)) {
+            throw new NoSuchElementException("Customer " + customerId + " not found");
+        }
+        return new Archive("customer-" + customerId + "-attachments.zip",
+                attachmentRepository.findByCustomerIdWithInvoice(customerId), true);
+    }
+
+    public void writeZip(Archive archive, OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.setLevel(Deflater.BEST_SPEED);
+        Set<String> names = new HashSet<>();
+        for (InvoiceAttachment att : archive.attachments()) {
+            InputStream in;
+            try {
+                in = storage.open(att.getStorageKey(), att.getContentEncoding());
+            } catch (NoSuchFileException missing) {
+                // the response is under way; one lost file should not cost the auditor the rest
+                log.warn("Attachment {} has no file; left out of {}", att.getId(), archive.filename());
+                continue;
+            }
+            try (in) {
+                String folder = archive.byInvoice() ? name(att.getInvoice()) + "/" : "";
+                ZipEntry entry = new ZipEntry(unique(names, folder, att));
+                entry.setTime(att.getCreatedAt().toEpochMilli());
+                if (att.getCrc32() != null && storesAsIs(att.getContentType())) {
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(att.getSize());
+                    entry.setCompressedSize(att.getSize());
+                    entry.setCrc(att.getCrc32());
+                }
+                zip.putNextEntry(entry);
+                in.transferTo(zip);
+                zip.closeEntry();
+            }
+        }
+        zip.finish();
+    }
+
+    boolean storesAsIs(String contentType) {
+        if (contentType == null) return false;
+        try {
+            MimeType type = MimeTypeUtils.parseMimeType(contentType);
+            return storedTypes.stream().anyMatch(t -> t.includes(type));
+        } catch (InvalidMimeTypeException e) {
+            return false;
+        }
+    }
+
+    private static String name(Invoice invoice) {
+        return name(invoice.getInvoiceNumber(), invoice.getId());
+    }
+
+    private static String name(String invoiceNumber, Long invoiceId) {
+        String base = invoiceNumber == null || invoiceNumber.isBlank() ? "invoice-" + invoiceId : invoiceNumber;
+        return base.replaceAll("[^a-zA-Z0-9._-]", "_");
+    }
+
+    /** The upload's own name without any path, numbered like {@code scan (2).pdf} when it repeats. */
+    private static String unique(Set<String> names, String folder, InvoiceAttachment att) {
+        String filename = att.getFilename() == null ? "" : att.getFilename();
+        filename = filename.substring(Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\')) + 1)
+                .replaceAll("[\\p{Cntrl}]", "_");
+        if (filename.isBlank() || filename.equals(".") || filename.equals("..")) filename = "attachment-" + att.getId();
+        int dot = filename.lastIndexOf('.');
+        String stem = dot > 0 ? filename.substring(0, dot) : filename;
+        String extension = dot > 0 ? filename.substring(dot) : "";
+        String candidate = folder + filename;
+        for (int n = 2; !names.add(candidate); n++) {
+            candidate = folder + stem + " (" + n + ")" + extension;
+        }
+        return candidate;
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.AttachmentUpload;
+import com.example.invoice.model.InvoiceAttachment;
+import com.example.invoice.repository.AttachmentUploadRepository;
+import com.example.invoice.repository.InvoiceAttachmentRepository;
+import com.example.invoice.repository.InvoiceRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Brings the upload directory and the database back in line. Attachment rows go without their files when
+ * an invoice is deleted (the database cascades), and crashed writes leave temporary files behind, so a
+ * scheduled pass ({@code app.uploads.reconcile.interval}, default every 6 hours) walks the storage tree
+ * lazily, looks keys up {@code app.uploads.reconcile.batch-size} at a time, and deletes files nothing
+ * references once they are older than {@code app.uploads.reconcile.grace} (default 1 hour, which covers a
+ * save whose row has not committed yet). Covered: attachment blobs with their gzip variants and previews,
+ * PDF snapshots, part files of chunked uploads, and upload sessions older than
+ * {@code app.uploads.reconcile.upload-ttl}. Rows whose file is missing are only reported, and so are legacy
+ * uploads no row points at: their keys are absolute paths, which stop matching when the directory moves.
+ * <p>
+ * Metrics: {@code attachment.reconcile} (timer), {@code attachment.reconcile.deleted{area}},
+ * {@code attachment.reconcile.reclaimed} (bytes), and gauges {@code attachment.reconcile.scanned} (files
+ * walked by the current or last pass), {@code attachment.reconcile.running} and
+ * {@code attachment.reconcile.dangling} (rows without a file, as of the last pass).
+ */
+@Service
+public class AttachmentReconciler {
+    private static final Logger log = LoggerFactory.getLogger(AttachmentReconciler.class);
+    private static final int LOGGED_DANGLING = 20;
+
+    /** Counts of one pass; {@code finishedAt} is {@code null} while it runs. */
+    public record Progress(Instant startedAt, Instant finishedAt, long scanned, long deleted, long reclaimedBytes,
+                           long danglingRows, long expiredUploads, long unreferencedLegacyFiles) {}
+
+    private final AttachmentStorageService storage;
+    private final InvoiceAttachmentRepository attachmentRepository;
+    private final InvoiceRepository invoiceRepository;
+    private final AttachmentUploadRepository uploadRepository;
+    private final MeterRegistry registry;
+    private final Duration grace;
+    private final Duration uploadTtl;
+    private final int batchSize;
+    private final Timer timer;
+    private final Counter reclaimed;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile Run current = new Run(null);
+    private volatile long lastDangling;
+
+    public AttachmentReconciler(AttachmentStorageService storage,
+                                InvoiceAttachmentRepository attachmentRepository,
+                                InvoiceRepository invoiceRepository,
+                                AttachmentUploadRepository uploadRepository,
+                                MeterRegistry registry,
+                                @Value("${app.uploads.reconcile.grace:1h}") Duration grace,
+                                @Value("${app.uploads.reconcile.upload-ttl:7d}") Duration uploadTtl,
+                                @Value("${app.uploads.reconcile.batch-size:500}") int batchSize) {
+        this.storage = storage;
+        this.attachmentRepository = attachmentRepository;
+        this.invoiceRepository = invoiceRepository;
+        this.uploadRepository = uploadRepository;
+        this.registry = registry;
+        this.grace = grace;
+        this.uploadTtl = uploadTtl;
+        this.batchSize = batchSize;
+        this.timer = registry.timer("attachment.reconcile");
+        this.reclaimed = Counter.builder("attachment.reconcile.reclaimed").baseUnit("bytes").register(registry);
+        Gauge.builder("attachment.reconcile.scanned", this, r -> r.current.scanned.get()).register(registry);
+        Gauge.builder("attachment.reconcile.running", running, r -> r.get() ? 1 : 0).register(registry);
+        Gauge.builder("attachment.reconcile.dangling", this, r -> r.lastDangling).register(registry);
+    }
+
+    @Scheduled(initialDelayString = "${app.uploads.reconcile.initial-delay:PT10M}",
+            fixedDelayString = "${app.uploads.reconcile.interval:PT6H}")
+    void scheduledPass() {
+        reconcile();
+    }
+
+    /** Runs one pass and returns its counts; while another pass is running, returns that one's so far. */
+    public Progress reconcile() {
+        if (!running.compareAndSet(false, true)) return progress();
+        Run run = new Run(Instant.now());
+        current = run;
+        try {
+            timer.record(() -> pass(run));
+        } finally {
+            run.finishedAt = Instant.now();
+            running.set(false);
+        }
+        lastDangling = run.dangling.get();
+        Progress done = run.progress();
+        log.info("Storage reconciled: {} files scanned, {} deleted ({} bytes), {} uploads expired, {} rows without a file, "
+                        + "{} legacy files without a row", done.scanned(), done.deleted(), done.reclaimedBytes(),
+                done.expiredUploads(), done.danglingRows(), done.unreferencedLegacyFiles());
+        return done;
+    }
+
+    public Progress progress() {
+        return current.progress();
+    }
+
+    private void pass(Run run) {
+        Instant cutoff = run.startedAt.minus(grace);
+        try {
+            try (Stream<Path> files = storage.blobFiles()) {
+                sweep("blobs", files, AttachmentStorageService::contentKeyOf,
+                        attachmentRepository::findReferencedStorageKeys, cutoff, run);
+            }
+            try (Stream<Path> files = storage.legacyFiles()) {
+                forEachUnreferenced(files, Path::toString, attachmentRepository::findReferencedStorageKeys, cutoff, run,
+                        (file, key) -> reportLegacy(file, run));
+            }
+            try (Stream<Path> files = storage.snapshotFiles()) {
+                sweep("snapshots", files, AttachmentStorageService::contentKeyOf,
+                        invoiceRepository::findReferencedPdfSnapshots, cutoff, run);
+            }
+            expireUploads(run.startedAt.minus(uploadTtl), run);
+            try (Stream<Path> files = storage.partFiles()) {
+                sweep("parts", files, AttachmentStorageService::uploadIdOf, uploadRepository::findExistingIds, cutoff, run);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to walk the upload directory", e);
+        }
+        findDanglingRows(run);
+    }
+
+    /**
+     * Deletes the files of {@code files} that are past the grace period and whose key {@code referenced}
+     * does not return; files without a key are leftovers of interrupted writes.
+     */
+    private void sweep(String area, Stream<Path> files, Function<Path, String> keyOf,
+                       Function<Collection<String>, List<String>> referenced, Instant cutoff, Run run) {
+        forEachUnreferenced(files, keyOf, referenced, cutoff, run,
+                (file, key) -> delete(area, file, key, referenced, cutoff, run));
+    }
+
+    private void forEachUnreferenced(Stream<Path> files, Function<Path, String> keyOf,
+                                     Function<Collection<String>, List<String>> referenced, Instant cutoff, Run run,
+                                     BiConsumer<Path, String> action) {
+        Map<Path, String> batch = new LinkedHashMap<>();
+        for (Iterator<Path> it = files.iterator(); it.hasNext(); ) {
+            Path file = it.next();
+            run.scanned.incrementAndGet();
+            if (!olderThan(file, cutoff)) continue;
+            String key = keyOf.apply(file);
+            if (key == null) {
+                action.accept(file, null);
+                continue;
+            }
+            batch.put(file, key);
+            if (batch.size() >= batchSize) {
+                collect(batch, referenced, action);
+                batch.clear();
+            }
+        }
+        collect(batch, referenced, action);
+    }
+
+    private static void collect(Map<Path, String> batch, Function<Collection<String>, List<String>> referenced,
+                                BiConsumer<Path, String> action) {
+        if (batch.isEmpty()) return;
+        Set<String> live = new HashSet<>(referenced.apply(new HashSet<>(batch.values())));
+        batch.forEach((file, key) -> {
+            if (!live.contains(key)) action.accept(file, key);
+        });
+    }
+
+    /** Deletes through {@link AttachmentStorageService#deleteUnlessReused}, re-checking the reference. */
+    private void delete(String area, Path file, String key, Function<Collection<String>, List<String>> referenced,
+                        Instant cutoff, Run run) {
+        if (!olderThan(file, cutoff)) return;
+        try {
+            long size = AttachmentStorageService.deleteUnlessReused(file, cutoff,
+                    () -> key != null && !referenced.apply(List.of(key)).isEmpty());
+            if (size < 0) return;
+            registry.counter("attachment.reconcile.deleted", "area", area).increment();
+            reclaimed.increment(size);
+            run.deleted.incrementAndGet();
+            run.reclaimed.addAndGet(size);
+        } catch (IOException e) {
+            log.warn("Could not delete orphaned file {}", file, e);
+        }
+    }
+
+    private void reportLegacy(Path file, Run run) {
+        if (run.legacy.incrementAndGet() <= LOGGED_DANGLING) {
+            log.warn("Legacy upload {} has no attachment row; left in place", file);
+        }
+    }
+
+    /** Abandoned chunked uploads; the part file goes with the session. */
+    private void expireUploads(Instant cutoff, Run run) throws IOException {
+        List<AttachmentUpload> stale;
+        do {
+            stale = uploadRepository.findByCreatedAtBefore(cutoff, Limit.of(batchSize));
+            uploadRepository.deleteAllInBatch(stale);
+            for (AttachmentUpload upload : stale) storage.deletePart(upload.getId());
+            run.expired.addAndGet(stale.size());
+        } while (stale.size() == batchSize);
+    }
+
+    private void findDanglingRows(Run run) {
+        Long after = 0L;
+        List<InvoiceAttachment> page;
+        do {
+            page = attachmentRepository.findByIdGreaterThanOrderById(after, Limit.of(batchSize));
+            for (InvoiceAttachment att : page) {
+                if (!Files.exists(storage.load(att.getStorageKey(), att.getContentEncoding()))
+                        && run.dangling.incrementAndGet() <= LOGGED_DANGLING) {
+                    log.warn("Attachment {} has no file at {}", att.getId(), att.getStorageKey());
+                }
+                after = att.getId();
+            }
+        } while (page.size() == batchSize);
+    }
+
+    private static boolean olderThan(Path file, Instant cutoff) {
+        try {
+            return Files.getLastModifiedTime(file).toInstant().isBefore(cutoff);
+        } catch (IOException gone) {
+            return false;
+        }
+    }
+
+    private static final class Run {
+        final Instant startedAt;
+        volatile Instant finishedAt;
+        final AtomicLong scanned = new AtomicLong();
+        final AtomicLong deleted = new AtomicLong();
+        final AtomicLong reclaimed = new AtomicLong();
+        final AtomicLong dangling = new AtomicLong();
+        final AtomicLong expired = new AtomicLong();
+        final AtomicLong legacy = new AtomicLong();
+
+        Run(Instant startedAt) {
+            this.startedAt = startedAt;
+        }
+
+        Progress progress() {
+            return new Progress(startedAt, finishedAt, scanned.get(), deleted.get(), reclaimed.get(),
+                    dangling.get(), expired.get(), legacy.get());
+        }
+    }
+}
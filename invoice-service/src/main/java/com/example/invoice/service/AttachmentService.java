@@ -0,0 +1,92 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.InvoiceAttachment;
+import com.example.invoice.repository.InvoiceAttachmentRepository;
+import com.example.invoice.repository.InvoiceRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.NoSuchElementException;
+
+/**
+ * Attachment rows share deduplicated blobs: the reference count of a blob is the number of
+ * {@code invoice_attachment} rows with its storage key, and the blob is removed when the last one goes.
+ */
+@Service
+public class AttachmentService {
+    static final long MAX_UPLOAD_BYTES = 10 * 1024 * 1024;
+
+    private final InvoiceRepository invoiceRepository;
+    private final InvoiceAttachmentRepository attachmentRepository;
+    private final AttachmentStorageService storage;
+    private final ThumbnailService thumbnails;
+    private final Duration reuseGrace;
+
+    public AttachmentService(InvoiceRepository invoiceRepository,
+                             InvoiceAttachmentRepository attachmentRepository,
+                             AttachmentStorageService storage,
+                             ThumbnailService thumbnails,
+                             @Value("${app.uploads.reuse-grace:10m}") Duration reuseGrace) {
+        this.invoiceRepository = invoiceRepository;
+        this.attachmentRepository = attachmentRepository;
+        this.storage = storage;
+        this.thumbnails = thumbnails;
+        this.reuseGrace = reuseGrace;
+    }
+
+    @Transactional
+    public InvoiceAttachment upload(Long invoiceId, MultipartFile file) throws IOException {
+        if (file.isEmpty()) throw new IllegalArgumentException("Empty file");
+        if (file.getSize() > MAX_UPLOAD_BYTES) throw new IllegalArgumentException("File too large (max 10MB)");
+        if (!invoiceRepository.existsById(invoiceId)) throw new NoSuchElementException("Invoice " + invoiceId + " not found");
+        InvoiceAttachment att = new InvoiceAttachment();
+        att.setInvoice(invoiceRepository.getReferenceById(invoiceId));
+        att.setFilename(file.getOriginalFilename());
+        att.setContentType(file.getContentType());
+        att.setSize(file.getSize());
+        AttachmentStorageService.StoredBlob blob = storage.save(file.getInputStream(), file.getContentType());
+        att.setStorageKey(blob.key());
+        att.setContentEncoding(blob.encoding());
+        att.setCrc32(blob.crc32());
+        thumbnails.generateAfterCommit(att);
+        return attachmentRepository.save(att);
+    }
+
+    /**
+     * Removes the attachment and, once that commits, its blob if no other attachment refers to it. A blob
+     * touched within {@code app.uploads.reuse-grace} is kept, because an upload of the same bytes may be
+     * about to reference it; such leftovers are unreferenced and swept later by the reconciler. The blob is
+     * claimed before the last look, as the reconciler does, so an upload that reuses it cannot lose it.
+     */
+    @Transactional
+    public void delete(Long attachmentId) {
+        InvoiceAttachment att = attachmentRepository.findById(attachmentId).orElseThrow();
+        String key = att.getStorageKey();
+        attachmentRepository.delete(att);
+        attachmentRepository.flush();
+        if (storage.isContentAddressed(key) && attachmentRepository.countByStorageKey(key) > 0) return;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    if (storage.isContentAddressed(key)) {
+                        storage.deleteBlobUnlessReused(key, Instant.now().minus(reuseGrace),
+                                () -> attachmentRepository.countByStorageKey(key) > 0);
+                    } else {
+                        // uploads from before deduplication are never shared
+                        storage.delete(key);
+                    }
+                } catch (IOException ignored) {
+                    // an unreferenced blob is harmless; it is never served again
+                }
+            }
+        });
+    }
+}
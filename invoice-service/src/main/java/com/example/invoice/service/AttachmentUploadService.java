@@ -0,0 +1,145 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.AttachmentUpload;
+import com.example.invoice.model.InvoiceAttachment;
+import com.example.invoice.repository.AttachmentUploadRepository;
+import com.example.invoice.repository.InvoiceAttachmentRepository;
+import com.example.invoice.repository.InvoiceRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Resumable chunked uploads for attachments too large for a single multipart request: start a session,
+ * PUT fixed-size chunks at their offsets (in any order, in parallel, again after a dropped connection),
+ * then complete it, which verifies the SHA-256 and stores the file like any other attachment.
+ * Sizes are bounded by {@code app.uploads.max-bytes}; chunks are {@code app.uploads.chunk-size} bytes.
+ */
+@Service
+public class AttachmentUploadService {
+    public record NewUpload(String filename, String contentType, long size, String sha256) {}
+
+    /** Session state; {@code missingOffsets} are the chunks still to send. */
+    public record UploadStatus(String id, Long invoiceId, String filename, long size, int chunkSize,
+                               List<Long> missingOffsets) {}
+
+    private final InvoiceRepository invoiceRepository;
+    private final InvoiceAttachmentRepository attachmentRepository;
+    private final AttachmentUploadRepository uploadRepository;
+    private final AttachmentStorageService storage;
+    private final ThumbnailService thumbnails;
+    private final long maxBytes;
+    private final int chunkSize;
+
+    public AttachmentUploadService(InvoiceRepository invoiceRepository,
+                                   InvoiceAttachmentRepository attachmentRepository,
+                                   AttachmentUploadRepository uploadRepository,
+                                   AttachmentStorageService storage,
+                                   ThumbnailService thumbnails,
+                                   @Value("${app.uploads.max-bytes:2147483648}") long maxBytes,
+                                   @Value("${app.uploads.chunk-size:8388608}") int chunkSize) {
+        this.invoiceRepository = invoiceRepository;
+        this.attachmentRepository = attachmentRepository;
+        this.uploadRepository = uploadRepository;
+        this.storage = storage;
+        this.thumbnails = thumbnails;
+        this.maxBytes = maxBytes;
+        this.chunkSize = chunkSize;
+    }
+
+    @Transactional
+    public UploadStatus start(Long invoiceId, NewUpload request) throws IOException {
+        if (request.filename() == null || request.filename().isBlank()) throw new IllegalArgumentException("Filename required");
+        if (request.size() <= 0) throw new IllegalArgumentException("Empty file");
+        if (request.size() > maxBytes) throw new IllegalArgumentException("File too large (max " + maxBytes + " bytes)");
+        if (request.sha256() != null && !storage.isContentAddressed(request.sha256())) {
+            throw new IllegalArgumentException("sha256 must be 64 lowercase hex digits");
+        }
+        if (!invoiceRepository.existsById(invoiceId)) throw new NoSuchElementException("Invoice " + invoiceId + " not found");
+        AttachmentUpload upload = new AttachmentUpload();
+        upload.setId(UUID.randomUUID().toString());
+        upload.setInvoice(invoiceRepository.getReferenceById(invoiceId));
+        upload.setFilename(request.filename());
+        upload.setContentType(request.contentType());
+        upload.setSize(request.size());
+        upload.setChunkSize(chunkSize);
+        upload.setSha256(request.sha256());
+        storage.createPart(upload.getId(), upload.getSize());
+        uploadRepository.save(upload);
+        return status(upload, List.of());
+    }
+
+    public UploadStatus status(String uploadId) {
+        AttachmentUpload upload = uploadRepository.findById(uploadId).orElseThrow();
+        return status(upload, uploadRepository.findReceivedChunks(uploadId));
+    }
+
+    /**
+     * Writes one chunk straight from the request body into the part file. No transaction is held while
+     * the bytes arrive; the chunk is recorded only once it is fully on disk.
+     */
+    public void writeChunk(String uploadId, long offset, ReadableByteChannel body) throws IOException {
+        AttachmentUpload upload = uploadRepository.findById(uploadId).orElseThrow();
+        if (offset < 0 || offset >= upload.getSize() || offset % upload.getChunkSize() != 0) {
+            throw new IllegalArgumentException("Offset must be a multiple of " + upload.getChunkSize()
+                    + " below " + upload.getSize());
+        }
+        storage.writeChunk(uploadId, offset, body, Math.min(upload.getChunkSize(), upload.getSize() - offset));
+        try {
+            uploadRepository.markChunkReceived(uploadId, (int) (offset / upload.getChunkSize()));
+        } catch (DataIntegrityViolationException alreadyRecorded) {
+            // the same chunk was sent twice concurrently
+        }
+    }
+
+    /**
+     * Verifies that every chunk arrived and that the content matches {@code sha256} (or the hash given at
+     * start), then turns the upload into an attachment.
+     */
+    @Transactional
+    public InvoiceAttachment complete(String uploadId, String sha256) throws IOException {
+        AttachmentUpload upload = uploadRepository.findById(uploadId).orElseThrow();
+        String expected = sha256 != null ? sha256 : upload.getSha256();
+        if (expected == null) throw new IllegalArgumentException("sha256 required to complete an upload");
+        List<Long> missing = status(upload, uploadRepository.findReceivedChunks(uploadId)).missingOffsets();
+        if (!missing.isEmpty()) throw new IllegalStateException("Chunks missing at offsets " + missing);
+        InvoiceAttachment att = new InvoiceAttachment();
+        att.setInvoice(upload.getInvoice());
+        att.setFilename(upload.getFilename());
+        att.setContentType(upload.getContentType());
+        att.setSize(upload.getSize());
+        AttachmentStorageService.StoredBlob blob = storage.commitPart(uploadId, expected, upload.getContentType());
+        att.setStorageKey(blob.key());
+        att.setContentEncoding(blob.encoding());
+        att.setCrc32(blob.crc32());
+        thumbnails.generateAfterCommit(att);
+        uploadRepository.delete(upload);
+        return attachmentRepository.save(att);
+    }
+
+    @Transactional
+    public void abort(String uploadId) throws IOException {
+        uploadRepository.delete(uploadRepository.findById(uploadId).orElseThrow());
+        storage.deletePart(uploadId);
+    }
+
+    private static UploadStatus status(AttachmentUpload upload, List<Integer> receivedChunks) {
+        Set<Integer> received = new HashSet<>(receivedChunks);
+        List<Long> missing = new ArrayList<>();
+        for (int n = 0; n < upload.chunkCount(); n++) {
+            if (!received.contains(n)) missing.add((long) n * upload.getChunkSize());
+        }
+        return new UploadStatus(upload.getId(), upload.getInvoice().getId(), upload.getFilename(), upload.getSize(),
+                upload.getChunkSize(), missing);
+    }
+}
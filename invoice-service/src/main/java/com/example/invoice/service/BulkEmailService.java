@@ -0,0 +1,163 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.EmailDelivery;
+import com.example.invoice.model.EmailOutboxMessage;
+import com.example.invoice.model.EmailStatus;
+import com.example.invoice.model.InvoiceVersion;
+import com.example.invoice.repository.EmailOutboxRepository;
+import com.example.invoice.repository.InvoiceRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Emails many invoices at once, each with its PDF. The request only validates and returns; a background
+ * job then finalizes the invoices {@code app.email.bulk.batch-size} (default 20) per transaction and queues
+ * their emails in the outbox with the same commit. The transactions only write rows: the dispatcher, woken
+ * after every batch, renders each PDF in its own render stage (storing the snapshot), so the first emails go
+ * out while later batches are still being queued.
+ * <p>
+ * Per-invoice progress is read back from the outbox, but the job itself (who started it, what was requested,
+ * invoices without an address) is held in memory on the node that runs it, for {@code app.email.bulk.ttl}
+ * (default 1 day). Behind a load balancer, progress is only found on that node, as is the login session
+ * the endpoints already require, so requests must stick to one node.
+ */
+@Service
+public class BulkEmailService {
+    private static final Logger log = LoggerFactory.getLogger(BulkEmailService.class);
+    public static final int MAX_INVOICES = 1000;
+
+    /** Which invoices to email; {@code subject} and {@code message} apply to all and are optional. */
+    public record Request(List<Long> invoiceIds, String subject, String message) {}
+
+    /**
+     * Where a bulk send stands: {@code queued} emails are in the outbox, of which {@code sent} went out and
+     * {@code failed} were given up; {@code withoutAddress} lists invoices whose customer has no email.
+     * {@code queuing} stays true until every invoice has been finalized and queued, or {@code error} is set.
+     */
+    public record Progress(String id, int requested, int queued, long sent, long failed, boolean queuing,
+                           List<Long> withoutAddress, String error, List<EmailDelivery> invoices) {}
+
+    private static final class Job {
+        final String id = UUID.randomUUID().toString();
+        final String principalName;
+        final List<Long> ids;
+        final AtomicInteger queued = new AtomicInteger();
+        final List<Long> withoutAddress = new CopyOnWriteArrayList<>();
+        volatile boolean queuing = true;
+        volatile String error;
+
+        Job(String principalName, List<Long> ids) {
+            this.principalName = principalName;
+            this.ids = ids;
+        }
+    }
+
+    private final InvoiceService invoiceService;
+    private final InvoiceRepository invoiceRepository;
+    private final EmailOutboxRepository outboxRepository;
+    private final EmailOutboxDispatcher dispatcher;
+    private final int batchSize;
+    private final Cache<String, Job> jobs;
+    private final ExecutorService workers;
+
+    public BulkEmailService(InvoiceService invoiceService,
+                            InvoiceRepository invoiceRepository,
+                            EmailOutboxRepository outboxRepository,
+                            EmailOutboxDispatcher dispatcher,
+                            @Value("${app.email.bulk.batch-size:20}") int batchSize,
+                            @Value("${app.email.bulk.threads:2}") int threads,
+                            @Value("${app.email.bulk.ttl:1d}") Duration ttl) {
+        this.invoiceService = invoiceService;
+        this.invoiceRepository = invoiceRepository;
+        this.outboxRepository = outboxRepository;
+        this.dispatcher = dispatcher;
+        this.batchSize = batchSize;
+        this.jobs = Caffeine.newBuilder().expireAfterWrite(ttl).build();
+        this.workers = Executors.newFixedThreadPool(threads,
+                Thread.ofPlatform().name("bulk-email-", 0).daemon().factory());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /** Fails before anything is queued if an invoice is unknown. */
+    public Progress start(Request request, String principalName) {
+        Set<Long> unique = new LinkedHashSet<>(request.invoiceIds() == null ? List.of() : request.invoiceIds());
+        if (unique.isEmpty()) throw new IllegalArgumentException("No invoices requested");
+        if (unique.size() > MAX_INVOICES) {
+            throw new IllegalArgumentException("At most " + MAX_INVOICES + " invoices per bulk send");
+        }
+        List<InvoiceVersion> versions = invoiceRepository.findVersionsByIdIn(unique);
+        if (versions.size() != unique.size()) {
+            Set<Long> missing = new HashSet<>(unique);
+            versions.forEach(v -> missing.remove(v.id()));
+            throw new NoSuchElementException("Invoices not found: " + missing);
+        }
+        Job job = new Job(principalName, List.copyOf(unique));
+        jobs.put(job.id, job);
+        InvoiceService.EmailRequest email = new InvoiceService.EmailRequest(null, request.subject(), request.message());
+        workers.execute(() -> queue(job, email));
+        return progress(job);
+    }
+
+    /** Only the user who started a bulk send can follow it. */
+    public Progress progress(String id, String principalName) {
+        Job job = jobs.getIfPresent(id);
+        if (job == null || !job.principalName.equals(principalName)) {
+            throw new NoSuchElementException("Bulk send " + id + " not found");
+        }
+        return progress(job);
+    }
+
+    private void queue(Job job, InvoiceService.EmailRequest request) {
+        Instant started = Instant.now();
+        try {
+            for (int from = 0; from < job.ids.size(); from += batchSize) {
+                List<Long> batch = job.ids.subList(from, Math.min(from + batchSize, job.ids.size()));
+                List<EmailOutboxMessage> queued = invoiceService.queueEmails(batch, job.principalName, request, job.id);
+                Set<Long> done = new HashSet<>();
+                queued.forEach(m -> done.add(m.getInvoice().getId()));
+                batch.stream().filter(id -> !done.contains(id)).forEach(job.withoutAddress::add);
+                job.queued.addAndGet(queued.size());
+                dispatcher.wake();
+            }
+            log.info("Bulk send {} queued {} of {} invoices in {} ms", job.id, job.queued.get(), job.ids.size(),
+                    Duration.between(started, Instant.now()).toMillis());
+        } catch (RuntimeException e) {
+            // batches already committed stay queued; the rest are left as they were
+            job.error = e.toString();
+            log.warn("Bulk send {} stopped after {} of {} invoices", job.id, job.queued.get(), job.ids.size(), e);
+        } finally {
+            job.queuing = false;
+        }
+    }
+
+    private Progress progress(Job job) {
+        List<EmailDelivery> deliveries = outboxRepository.findDeliveriesByBatchId(job.id);
+        long sent = deliveries.stream().filter(d -> d.status() == EmailStatus.SENT).count();
+        long failed = deliveries.stream().filter(d -> d.status() == EmailStatus.DEAD).count();
+        return new Progress(job.id, job.ids.size(), deliveries.size(), sent, failed, job.queuing,
+                new ArrayList<>(job.withoutAddress), job.error, deliveries);
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.Customer;
+import com.example.invoice.repository.CustomerRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Customers, with a near cache in front of the lookups every write path makes: by id when invoices are
+ * created, by email when a customer is registered. Cached customers are detached and shared between
+ * requests, so they are read, never modified; changes go through {@link #update} and {@link #delete}.
+ * Those write the new state through to the cache once they commit and record a {@code customer_change}
+ * row in the same transaction. Every node polls that table ({@code app.customers.cache.poll-interval},
+ * default 5 seconds) and evicts what the others changed. It looks back {@code app.customers.cache.lookback}
+ * (default 1 minute), so transactions that commit late are still seen. Entries also expire after
+ * {@code app.customers.cache.ttl} (default 10 minutes) as a backstop; at most
+ * {@code app.customers.cache.max-size} are kept.
+ * <p>
+ * Metrics: {@code cache.*{cache="customers"}}, {@code cache.*{cache="customer-emails"}} and
+ * {@code customer.cache.remote.evictions}.
+ */
+@Service
+public class CustomerService {
+    private static final Duration PRUNE_INTERVAL = Duration.ofMinutes(10);
+
+    private final CustomerRepository repository;
+    private final Cache<Long, Customer> byId;
+    private final Cache<String, Long> idsByEmail;
+    private final Duration lookback;
+    private final Duration retention;
+    private final Counter remoteEvictions;
+    /** Changes already applied that are still inside the lookback window, by when they were seen. */
+    private final Map<Long, Instant> applied = new ConcurrentHashMap<>();
+    private volatile Instant prunedAt = Instant.EPOCH;
+
+    public CustomerService(CustomerRepository repository,
+                           MeterRegistry registry,
+                           @Value("${app.customers.cache.max-size:10000}") long maxSize,
+                           @Value("${app.customers.cache.ttl:10m}") Duration ttl,
+                           @Value("${app.customers.cache.lookback:1m}") Duration lookback,
+                           @Value("${app.customers.cache.change-retention:1h}") Duration retention) {
+        this.repository = repository;
+        this.byId = Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).recordStats().build();
+        this.idsByEmail = Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).recordStats().build();
+        this.lookback = lookback;
+        this.retention = retention;
+        this.remoteEvictions = registry.counter("customer.cache.remote.evictions");
+        CaffeineCacheMetrics.monitor(registry, byId, "customers");
+        CaffeineCacheMetrics.monitor(registry, idsByEmail, "customer-emails");
+    }
+
+    public Customer get(Long id) {
+        return find(id).orElseThrow(() -> new NoSuchElementException("Customer " + id + " not found"));
+    }
+
+    /** At least {@code version}: a cached copy left behind by a change not yet polled is reloaded. */
+    public Customer get(Long id, long version) {
+        Customer cached = byId.asMap().get(id);
+        if (cached != null && cached.getVersion() < version) byId.asMap().remove(id, cached);
+        return get(id);
+    }
+
+    /** The current version, read from the database; one column of one row. */
+    public long version(Long id) {
+        return repository.findVersionById(id).orElseThrow(() -> new NoSuchElementException("Customer " + id + " not found"));
+    }
+
+    public Optional<Customer> find(Long id) {
+        return Optional.ofNullable(byId.get(id, key -> repository.findById(key).orElse(null)));
+    }
+
+    /** The customers that exist among {@code ids}, loading the uncached ones in one query. */
+    public Map<Long, Customer> findAll(Collection<Long> ids) {
+        return byId.getAll(ids, missing -> repository.findAllById(List.copyOf(missing)).stream()
+                .collect(Collectors.toMap(Customer::getId, Function.identity())));
+    }
+
+    /** Misses are not cached, so a customer created on another node is found straight away. */
+    public Optional<Customer> findByEmail(String email) {
+        if (email == null) return Optional.empty();
+        Long id = idsByEmail.getIfPresent(email);
+        if (id != null) {
+            Optional<Customer> cached = find(id);
+            // the address may have moved to another customer since
+            if (cached.isPresent() && email.equals(cached.get().getEmail())) return cached;
+            idsByEmail.invalidate(email);
+        }
+        Optional<Customer> found = repository.findByEmail(email);
+        found.ifPresent(this::put);
+        return found;
+    }
+
+    @Transactional
+    public Customer create(Customer customer) {
+        Customer saved = repository.save(customer);
+        afterCommit(() -> put(saved));
+        return saved;
+    }
+
+    /** With an {@code expectedVersion} (from {@code If-Match}) this fails unless nobody saved the customer since. */
+    @Transactional
+    public Customer update(Long id, Customer changes, Long expectedVersion) {
+        Customer existing = repository.findById(id).orElseThrow();
+        if (expectedVersion != null && !expectedVersion.equals(existing.getVersion())) {
+            throw new ObjectOptimisticLockingFailureException(Customer.class, id);
+        }
+        existing.setName(changes.getName());
+        existing.setEmail(changes.getEmail());
+        existing.setPhone(changes.getPhone());
+        existing.setBillingAddress(changes.getBillingAddress());
+        existing.setShippingAddress(changes.getShippingAddress());
+        existing.setTaxNumber(changes.getTaxNumber());
+        existing.setUpdatedAt(Instant.now());
+        Customer saved = repository.save(existing);
+        changed(id);
+        afterCommit(() -> put(saved));
+        return saved;
+    }
+
+    @Transactional
+    public void delete(Long id) {
+        repository.deleteById(id);
+        changed(id);
+    }
+
+    /** Evicts what changed since the last look; each change is applied once. */
+    @Scheduled(fixedDelayString = "${app.customers.cache.poll-interval:PT5S}")
+    public void pollChanges() {
+        Instant now = Instant.now();
+        for (Object[] change : repository.findChangesSince(now.minus(lookback))) {
+            long changeId = ((Number) change[0]).longValue();
+            if (applied.putIfAbsent(changeId, now) == null) {
+                byId.invalidate(((Number) change[1]).longValue());
+                remoteEvictions.increment();
+            }
+        }
+        applied.values().removeIf(seenAt -> seenAt.isBefore(now.minus(lookback.multipliedBy(2))));
+        if (prunedAt.plus(PRUNE_INTERVAL).isBefore(now)) {
+            repository.deleteChangesBefore(now.minus(retention));
+            prunedAt = now;
+        }
+    }
+
+    /** Evicts now, so this node does not serve the old state while the change commits, and tells the others. */
+    private void changed(Long id) {
+        repository.recordChange(id, Instant.now());
+        byId.invalidate(id);
+        // a read that raced the commit may have cached the old row again
+        afterCommit(() -> byId.invalidate(id));
+    }
+
+    private void put(Customer customer) {
+        byId.put(customer.getId(), customer);
+        idsByEmail.put(customer.getEmail(), customer.getId());
+    }
+
+    private static void afterCommit(Runnable action) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
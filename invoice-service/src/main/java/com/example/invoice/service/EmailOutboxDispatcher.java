@@ -0,0 +1,276 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.EmailOutboxMessage;
+import com.example.invoice.model.EmailStatus;
+import com.example.invoice.model.InvoiceVersion;
+import com.example.invoice.repository.EmailOutboxRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.api.client.http.HttpResponseException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.mail.MessagingException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivers the email outbox. Due messages are claimed with a lease, so several nodes can poll the same table;
+ * their PDFs are attached on a render stage and they are sent on a worker pool, throttled per Gmail account,
+ * retried with backoff and marked DEAD when Gmail will keep refusing them. Delivery is at least once.
+ * <p>
+ * Metrics: {@code email.outbox.sent}, {@code email.outbox.retries}, {@code email.outbox.dead},
+ * {@code email.outbox.throttled} (counters), {@code email.outbox.delivery} (timer, queued to sent) and
+ * gauges {@code email.outbox.pending} and {@code email.outbox.oldest.age} (seconds), as of the last poll.
+ */
+@Service
+public class EmailOutboxDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(EmailOutboxDispatcher.class);
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final EmailOutboxRepository repository;
+    private final GmailEmailService gmail;
+    private final PdfService pdfService;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final Duration lease;
+    private final double perUserRate;
+    private final int perUserBurst;
+    private final Cache<String, TokenBucket> buckets;
+    private final ExecutorService renderers;
+    private final ExecutorService workers;
+    private final ExecutorService poller;
+    private final AtomicBoolean wakeQueued = new AtomicBoolean();
+    private final Counter sent;
+    private final Counter retries;
+    private final Counter dead;
+    private final Counter throttled;
+    private final Timer delivery;
+    private volatile long pending;
+    private volatile double oldestAgeSeconds;
+
+    public EmailOutboxDispatcher(EmailOutboxRepository repository,
+                                 GmailEmailService gmail,
+                                 PdfService pdfService,
+                                 MeterRegistry registry,
+                                 @Value("${app.email.outbox.batch-size:50}") int batchSize,
+                                 @Value("${app.email.outbox.render-threads:2}") int renderThreads,
+                                 @Value("${app.email.outbox.threads:4}") int threads,
+                                 @Value("${app.email.outbox.max-attempts:8}") int maxAttempts,
+                                 @Value("${app.email.outbox.initial-backoff:30s}") Duration initialBackoff,
+                                 @Value("${app.email.outbox.max-backoff:1h}") Duration maxBackoff,
+                                 @Value("${app.email.outbox.lease:5m}") Duration lease,
+                                 @Value("${app.email.outbox.per-user-rate:2}") double perUserRate,
+                                 @Value("${app.email.outbox.per-user-burst:10}") int perUserBurst) {
+        this.repository = repository;
+        this.gmail = gmail;
+        this.pdfService = pdfService;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.lease = lease;
+        this.perUserRate = perUserRate;
+        this.perUserBurst = Math.max(1, perUserBurst);
+        this.buckets = Caffeine.newBuilder().expireAfterAccess(Duration.ofHours(1)).build();
+        this.renderers = Executors.newFixedThreadPool(renderThreads,
+                Thread.ofPlatform().name("email-outbox-render-", 0).daemon().factory());
+        this.workers = Executors.newFixedThreadPool(threads,
+                Thread.ofPlatform().name("email-outbox-", 0).daemon().factory());
+        this.poller = Executors.newSingleThreadExecutor(Thread.ofPlatform().name("email-outbox-poll").daemon().factory());
+        this.sent = registry.counter("email.outbox.sent");
+        this.retries = registry.counter("email.outbox.retries");
+        this.dead = registry.counter("email.outbox.dead");
+        this.throttled = registry.counter("email.outbox.throttled");
+        this.delivery = registry.timer("email.outbox.delivery");
+        Gauge.builder("email.outbox.pending", this, d -> d.pending).register(registry);
+        Gauge.builder("email.outbox.oldest.age", this, d -> d.oldestAgeSeconds).baseUnit("seconds").register(registry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        poller.shutdownNow();
+        renderers.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    @Scheduled(fixedDelayString = "${app.email.outbox.poll-interval:PT5S}")
+    void scheduledPoll() {
+        dispatch();
+    }
+
+    /**
+     * Sends everything that was due when the poll started and returns how many went out. Messages this
+     * poll retries, defers or leases are due later, so each is handled at most once per poll.
+     */
+    public int dispatch() {
+        Instant now = Instant.now();
+        int delivered = 0;
+        List<EmailOutboxMessage> due;
+        do {
+            due = repository.findDue(EmailStatus.PENDING, now, Limit.of(batchSize));
+            Map<String, Integer> deferred = new HashMap<>();
+            List<CompletableFuture<Boolean>> sends = new ArrayList<>();
+            for (EmailOutboxMessage message : due) {
+                Duration wait = wait(message.getPrincipalName(), now, deferred);
+                if (wait != null) {
+                    if (repository.claim(message.getId(), message.getNextAttemptAt(), now.plus(wait)) == 1) {
+                        throttled.increment();
+                    }
+                } else if (repository.claim(message.getId(), message.getNextAttemptAt(), now.plus(lease)) == 1) {
+                    // render stage and send stage on their own pools, so PDFs render while others send
+                    sends.add(CompletableFuture.supplyAsync(() -> attachments(message), renderers)
+                            .thenApplyAsync(attachments -> deliver(message, attachments), workers)
+                            .exceptionally(e -> failed(message, e.getCause() != null ? e.getCause() : e)));
+                }
+            }
+            for (CompletableFuture<Boolean> send : sends) {
+                if (send.join()) delivered++;
+            }
+        } while (due.size() == batchSize);
+        refreshGauges();
+        return delivered;
+    }
+
+    /** {@code null} when the user has a token to spend; otherwise how long until this message's turn. */
+    private Duration wait(String principalName, Instant now, Map<String, Integer> deferred) {
+        if (perUserRate <= 0) return null;
+        TokenBucket bucket = buckets.get(principalName, p -> new TokenBucket(perUserRate, perUserBurst, now));
+        Duration shortfall = bucket.take(now);
+        if (shortfall == null) return null;
+        // later messages of the same user queue behind the ones already deferred instead of all waking at once
+        int ahead = deferred.merge(principalName, 1, Integer::sum) - 1;
+        return shortfall.plusNanos((long) (ahead / perUserRate * 1e9));
+    }
+
+    /** Polls now instead of at the next interval, e.g. once a bulk send has queued a batch. */
+    public void wake() {
+        if (wakeQueued.compareAndSet(false, true)) {
+            poller.execute(() -> {
+                wakeQueued.set(false);
+                dispatch();
+            });
+        }
+    }
+
+    /** The invoice PDF as it is now: the stored snapshot of a finalized invoice, rendered only if that is stale. */
+    private List<GmailEmailService.Attachment> attachments(EmailOutboxMessage message) {
+        if (!message.isAttachPdf() || message.getInvoice() == null) return List.of();
+        InvoiceVersion version = pdfService.version(message.getInvoice().getId());
+        String number = version.invoiceNumber();
+        String filename = (number == null || number.isBlank() ? "invoice-" + version.id() : number) + ".pdf";
+        return List.of(new GmailEmailService.Attachment(filename, "application/pdf", pdfService.cachedInvoicePdf(version)));
+    }
+
+    private boolean deliver(EmailOutboxMessage message, List<GmailEmailService.Attachment> attachments) {
+        try {
+            gmail.sendEmail(message.getPrincipalName(), message.getRecipient(), message.getSubject(), message.getBody(),
+                    attachments);
+        } catch (Exception e) {
+            fail(message, e);
+            return false;
+        }
+        Instant sentAt = Instant.now();
+        repository.markSent(message.getId(), sentAt);
+        sent.increment();
+        delivery.record(Duration.between(message.getCreatedAt(), sentAt));
+        return true;
+    }
+
+    /** A render that failed, or a failure recording the outcome; the latter is left to the lease. */
+    private boolean failed(EmailOutboxMessage message, Throwable e) {
+        try {
+            fail(message, e);
+        } catch (RuntimeException unrecorded) {
+            log.warn("Could not record the outcome of email {}", message.getId(), unrecorded);
+        }
+        return false;
+    }
+
+    private void fail(EmailOutboxMessage message, Throwable e) {
+        String error = e.toString();
+        if (error.length() > MAX_ERROR_LENGTH) error = error.substring(0, MAX_ERROR_LENGTH);
+        int attempt = message.getAttempts() + 1;
+        if (permanent(e) || attempt >= maxAttempts) {
+            repository.markDead(message.getId(), error);
+            dead.increment();
+            log.warn("Email {} to {} given up after {} attempts: {}", message.getId(), message.getRecipient(), attempt, error);
+        } else {
+            repository.reschedule(message.getId(), Instant.now().plus(backoff(attempt)), error);
+            retries.increment();
+        }
+    }
+
+    /** Failures a retry would only repeat. A missing or expired token is not one: the user may sign in again. */
+    static boolean permanent(Throwable e) {
+        if (e instanceof MessagingException) return true;
+        if (e instanceof HttpResponseException http) {
+            int status = http.getStatusCode();
+            return status >= 400 && status < 500 && status != 401 && status != 403 && status != 408 && status != 429;
+        }
+        return false;
+    }
+
+    /** {@code initial-backoff * 2^(attempt-1)}, capped at {@code max-backoff}, give or take 20%. */
+    Duration backoff(int attempt) {
+        Duration base = initialBackoff.multipliedBy(1L << Math.min(attempt - 1, 30));
+        if (base.compareTo(maxBackoff) > 0 || base.isNegative()) base = maxBackoff;
+        double jitter = ThreadLocalRandom.current().nextDouble(0.8, 1.2);
+        return Duration.ofMillis((long) (base.toMillis() * jitter));
+    }
+
+    private void refreshGauges() {
+        pending = repository.countByStatus(EmailStatus.PENDING);
+        oldestAgeSeconds = repository.findOldestCreatedAt(EmailStatus.PENDING)
+                .map(oldest -> Math.max(0, Duration.between(oldest, Instant.now()).toMillis() / 1000.0))
+                .orElse(0.0);
+    }
+
+    /** Refills continuously at {@code rate} tokens a second, holding at most {@code burst}. */
+    private static final class TokenBucket {
+        private final double rate;
+        private final double burst;
+        private double tokens;
+        private Instant refilledAt;
+
+        TokenBucket(double rate, double burst, Instant now) {
+            this.rate = rate;
+            this.burst = burst;
+            this.tokens = burst;
+            this.refilledAt = now;
+        }
+
+        /** Spends a token and returns {@code null}, or returns how long until one is available. */
+        synchronized Duration take(Instant now) {
+            if (now.isAfter(refilledAt)) {
+                tokens = Math.min(burst, tokens + Duration.between(refilledAt, now).toNanos() / 1e9 * rate);
+                refilledAt = now;
+            }
+            if (tokens >= 1) {
+                tokens -= 1;
+                return null;
+            }
+            return Duration.ofNanos((long) Math.ceil((1 - tokens) / rate * 1e9));
+        }
+    }
+}
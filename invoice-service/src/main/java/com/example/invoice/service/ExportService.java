@@ -0,0 +1,144 @@
+package com.example.invoice.service;
+
+import com.example.invoice.repository.InvoiceRepository;
+import com.example.invoice.repository.PaymentRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Writes ledger exports row by row from a forward-only JDBC cursor, so heap usage does not
+ * depend on the number of rows. Rows are DTO projections and never enter the persistence context.
+ */
+@Service
+public class ExportService {
+    private static final List<String> INVOICE_COLUMNS = List.of(
+            "id", "invoice_number", "customer_id", "customer_name", "issue_date", "due_date",
+            "status", "currency", "total", "balance_due");
+    private static final List<String> PAYMENT_COLUMNS = List.of(
+            "id", "invoice_id", "invoice_number", "amount", "method", "reference", "paid_at");
+
+    public enum Format {
+        CSV("text/csv", "csv"),
+        NDJSON("application/x-ndjson", "ndjson");
+
+        private final String mediaType;
+        private final String extension;
+
+        Format(String mediaType, String extension) {
+            this.mediaType = mediaType;
+            this.extension = extension;
+        }
+
+        public String mediaType() { return mediaType; }
+        public String extension() { return extension; }
+    }
+
+    private final InvoiceRepository invoiceRepository;
+    private final PaymentRepository paymentRepository;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter rowWriter;
+    private final TransactionTemplate readOnlyTx;
+
+    public ExportService(InvoiceRepository invoiceRepository,
+                         PaymentRepository paymentRepository,
+                         ObjectMapper objectMapper,
+                         PlatformTransactionManager transactionManager) {
+        this.invoiceRepository = invoiceRepository;
+        this.paymentRepository = paymentRepository;
+        this.objectMapper = objectMapper;
+        this.rowWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.readOnlyTx = new TransactionTemplate(transactionManager);
+        this.readOnlyTx.setReadOnly(true);
+    }
+
+    public void writeInvoices(Format format, OutputStream out) {
+        write(invoiceRepository::streamSummaries, format, INVOICE_COLUMNS, s -> Arrays.asList(
+                s.id(), s.invoiceNumber(), s.customerId(), s.customerName(), s.issueDate(), s.dueDate(),
+                s.status(), s.currency(), s.total(), s.balanceDue()), out);
+    }
+
+    public void writePayments(Format format, OutputStream out) {
+        write(paymentRepository::streamExportRows, format, PAYMENT_COLUMNS, p -> Arrays.asList(
+                p.id(), p.invoiceId(), p.invoiceNumber(), p.amount(), p.method(), p.reference(), p.paidAt()), out);
+    }
+
+    /**
+     * The stream is opened and drained inside one read-only transaction: PostgreSQL only honours
+     * the fetch size (server-side cursor) with auto-commit off.
+     */
+    private <T> void write(Supplier<Stream<T>> source, Format format, List<String> columns,
+                           Function<T, List<Object>> csvValues, OutputStream out) {
+        readOnlyTx.executeWithoutResult(status -> {
+            try (Stream<T> rows = source.get()) {
+                if (format == Format.CSV) {
+                    writeCsv(rows, columns, csvValues, out);
+                } else {
+                    writeNdjson(rows, out);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private <T> void writeCsv(Stream<T> rows, List<String> columns, Function<T, List<Object>> values,
+                              OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 16 * 1024);
+        writeCsvLine(writer, columns);
+        for (T row : (Iterable<T>) rows::iterator) {
+            writeCsvLine(writer, values.apply(row));
+        }
+        writer.flush();
+    }
+
+    private <T> void writeNdjson(Stream<T> rows, OutputStream out) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .setRootValueSeparator(null);
+        for (T row : (Iterable<T>) rows::iterator) {
+            rowWriter.writeValue(generator, row);
+            generator.writeRaw('\n');
+        }
+        generator.flush();
+    }
+
+    private static void writeCsvLine(Writer writer, List<?> values) throws IOException {
+        for (int n = 0; n < values.size(); n++) {
+            if (n > 0) writer.write(',');
+            Object value = values.get(n);
+            if (value != null) writeCsvField(writer, value.toString());
+        }
+        writer.write("\r\n");
+    }
+
+    /** RFC 4180: quote fields containing separators, quotes or line breaks; double embedded quotes. */
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        boolean quote = value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
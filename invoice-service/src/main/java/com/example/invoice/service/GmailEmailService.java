@@ -1,50 +1,126 @@
 package com.example.invoice.service;
 
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
 import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.services.gmail.Gmail;
 import com.google.api.services.gmail.model.Message;
 import com.google.auth.http.HttpCredentialsAdapter;
 import com.google.auth.oauth2.AccessToken;
 import com.google.auth.oauth2.GoogleCredentials;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
 import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
 import org.springframework.security.oauth2.core.OAuth2AccessToken;
 import org.springframework.stereotype.Service;
 
+import javax.activation.DataHandler;
 import javax.mail.MessagingException;
 import javax.mail.Session;
 import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Base64;
 import java.util.Date;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service for sending emails via Gmail API using user's OAuth2 token.
+ * <p>
+ * Every send shares one pooled HTTP transport ({@code app.gmail.max-connections}, default 20), so
+ * connections and TLS sessions to Gmail are reused. {@code Gmail} clients are cached per principal
+ * ({@code app.gmail.client-cache-size}) until their access token expires or is replaced by a refreshed
+ * one. {@code app.gmail.root-url} points the client at a fake endpoint in tests.
+ * <p>
+ * Metrics: {@code gmail.send} (timer) and {@code cache.*{cache="gmail-clients"}}.
  */
 @Service
 public class GmailEmailService {
 
+    /** A file sent along with the text, e.g. the invoice PDF. */
+    public record Attachment(String filename, String contentType, byte[] content) {}
+
+    private record CachedClient(OAuth2AccessToken token, Gmail gmail) {}
+
     private final OAuth2AuthorizedClientService authorizedClientService;
+    private final ApacheHttpTransport transport;
+    private final String rootUrl;
+    private final Cache<String, CachedClient> clients;
+    private final Session session = Session.getInstance(new Properties());
+    private final Timer sendTimer;
 
-    public GmailEmailService(OAuth2AuthorizedClientService authorizedClientService) {
+    public GmailEmailService(OAuth2AuthorizedClientService authorizedClientService,
+                             MeterRegistry registry,
+                             @Value("${app.gmail.root-url:https://gmail.googleapis.com/}") String rootUrl,
+                             @Value("${app.gmail.max-connections:20}") int maxConnections,
+                             @Value("${app.gmail.client-cache-size:1000}") int clientCacheSize) {
         this.authorizedClientService = authorizedClientService;
+        this.rootUrl = rootUrl;
+        this.transport = new ApacheHttpTransport(ApacheHttpTransport.newDefaultHttpClientBuilder()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .evictIdleConnections(60, TimeUnit.SECONDS)
+                .build());
+        this.clients = Caffeine.newBuilder()
+                .maximumSize(clientCacheSize)
+                .expireAfter(new TokenExpiry())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, clients, "gmail-clients");
+        this.sendTimer = registry.timer("gmail.send");
+    }
+
+    @PreDestroy
+    void shutdown() throws IOException {
+        transport.shutdown();
     }
 
     /**
      * Send email using Gmail API with user's OAuth2 credentials.
      */
-    public void sendEmail(String principalName, String to, String subject, String body) 
-            throws GeneralSecurityException, IOException, MessagingException {
-        
+    public void sendEmail(String principalName, String to, String subject, String body)
+            throws IOException, MessagingException {
+        sendEmail(principalName, to, subject, body, List.of());
+    }
+
+    /** As above, as a {@code multipart/mixed} message when there are attachments. */
+    public void sendEmail(String principalName, String to, String subject, String body, List<Attachment> attachments)
+            throws IOException, MessagingException {
+        Gmail service = client(principalName);
+
+        // Create email message
+        MimeMessage email = createEmail(to, "me", subject, body, attachments);
+        Message message = createMessageWithEmail(email);
+
+        // Send email
+        long start = System.nanoTime();
+        try {
+            service.users().messages().send("me", message).execute();
+        } finally {
+            sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /** The cached client for the user's current access token, built on first use and after a refresh. */
+    Gmail client(String principalName) {
         // Get OAuth2 authorized client for the user
         OAuth2AuthorizedClient client = authorizedClientService
             .loadAuthorizedClient("google", principalName);
-        
+
         if (client == null) {
             throw new IllegalStateException("User is not authenticated with Google");
         }
@@ -54,41 +130,52 @@ public class GmailEmailService {
             throw new IllegalStateException("No valid access token found");
         }
 
-        // Create Gmail service with user's credentials
+        CachedClient cached = clients.getIfPresent(principalName);
+        if (cached == null || !cached.token().getTokenValue().equals(accessToken.getTokenValue())) {
+            // a client for a rotated token would keep authenticating with the old one
+            cached = new CachedClient(accessToken, build(accessToken));
+            clients.put(principalName, cached);
+        }
+        return cached.gmail();
+    }
+
+    private Gmail build(OAuth2AccessToken accessToken) {
         GoogleCredentials credentials = GoogleCredentials.create(
-            new AccessToken(accessToken.getTokenValue(), 
-                           accessToken.getExpiresAt() != null ? 
+            new AccessToken(accessToken.getTokenValue(),
+                           accessToken.getExpiresAt() != null ?
                            Date.from(accessToken.getExpiresAt()) : null)
         );
-
-        Gmail service = new Gmail.Builder(
-            GoogleNetHttpTransport.newTrustedTransport(),
-            GsonFactory.getDefaultInstance(),
-            new HttpCredentialsAdapter(credentials))
+        return new Gmail.Builder(transport, GsonFactory.getDefaultInstance(), new HttpCredentialsAdapter(credentials))
+            .setRootUrl(rootUrl)
             .setApplicationName("Invoice Service")
             .build();
-
-        // Create email message
-        MimeMessage email = createEmail(to, "me", subject, body);
-        Message message = createMessageWithEmail(email);
-
-        // Send email
-        service.users().messages().send("me", message).execute();
     }
 
     /**
      * Create a MimeMessage using the parameters provided.
      */
-    private MimeMessage createEmail(String to, String from, String subject, String bodyText)
-            throws MessagingException {
-        Properties props = new Properties();
-        Session session = Session.getDefaultInstance(props, null);
-
+    private MimeMessage createEmail(String to, String from, String subject, String bodyText,
+                                    List<Attachment> attachments) throws MessagingException {
         MimeMessage email = new MimeMessage(session);
         email.setFrom(new InternetAddress(from));
         email.addRecipient(javax.mail.Message.RecipientType.TO, new InternetAddress(to));
         email.setSubject(subject);
-        email.setText(bodyText);
+        if (attachments.isEmpty()) {
+            email.setText(bodyText);
+            return email;
+        }
+        MimeMultipart content = new MimeMultipart();
+        MimeBodyPart text = new MimeBodyPart();
+        text.setText(bodyText, "UTF-8");
+        content.addBodyPart(text);
+        for (Attachment attachment : attachments) {
+            MimeBodyPart part = new MimeBodyPart();
+            part.setDataHandler(new DataHandler(
+                    new ByteArrayDataSource(attachment.content(), attachment.contentType())));
+            part.setFileName(attachment.filename());
+            content.addBodyPart(part);
+        }
+        email.setContent(content);
         return email;
     }
 
@@ -105,4 +192,26 @@ public class GmailEmailService {
         message.setRaw(encodedEmail);
         return message;
     }
+
+    /** A cached client lives as long as its token; tokens without an expiry are rechecked hourly. */
+    private static final class TokenExpiry implements Expiry<String, CachedClient> {
+        private static final Duration UNKNOWN_EXPIRY = Duration.ofHours(1);
+
+        @Override
+        public long expireAfterCreate(String principal, CachedClient cached, long currentTime) {
+            Instant expiresAt = cached.token().getExpiresAt();
+            Duration ttl = expiresAt == null ? UNKNOWN_EXPIRY : Duration.between(Instant.now(), expiresAt);
+            return Math.max(0, ttl.toNanos());
+        }
+
+        @Override
+        public long expireAfterUpdate(String principal, CachedClient cached, long currentTime, long currentDuration) {
+            return expireAfterCreate(principal, cached, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String principal, CachedClient cached, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
 }
@@ -1,16 +1,117 @@
 package com.example.invoice.service;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.LocalDate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Hi/lo invoice numbering backed by the {@code invoice_number_series} table. Each node reserves a
+ * block of numbers per series in a short, separate transaction and then hands them out with a local
+ * increment, so replicas never collide and a restart only skips the unused tail of a block.
+ * <p>
+ * Series are keyed by prefix and, when {@code app.invoice-number.per-year} is set, the issue year:
+ * {@code INV} + per-year gives {@code INV2025-00000001}; the defaults keep the plain 8-digit format.
+ */
 @Component
 public class InvoiceNumberGenerator {
-    private final AtomicLong counter = new AtomicLong(1);
+    static final String DEFAULT_SERIES = "DEFAULT";
 
-    public String nextNumber() {
-        long n = counter.getAndIncrement();
-        long mod = n % 100_000_000L;
-        return String.format("%08d", mod);
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate reserveTx;
+    private final String defaultPrefix;
+    private final boolean perYear;
+    private final int blockSize;
+    private final ConcurrentMap<String, Block> blocks = new ConcurrentHashMap<>();
+
+    public InvoiceNumberGenerator(JdbcTemplate jdbc,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${app.invoice-number.prefix:}") String defaultPrefix,
+                                  @Value("${app.invoice-number.per-year:false}") boolean perYear,
+                                  @Value("${app.invoice-number.block-size:20}") int blockSize) {
+        this.jdbc = jdbc;
+        this.reserveTx = new TransactionTemplate(transactionManager);
+        this.reserveTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.defaultPrefix = defaultPrefix;
+        this.perYear = perYear;
+        this.blockSize = blockSize;
+    }
+
+    public String nextNumber(LocalDate issueDate) {
+        return nextNumber(defaultPrefix, issueDate);
+    }
+
+    public String nextNumber(String prefix, LocalDate issueDate) {
+        int year = (issueDate != null ? issueDate : LocalDate.now()).getYear();
+        String head = perYear ? prefix + year + "-" : prefix;
+        String series = head.isEmpty() ? DEFAULT_SERIES : head;
+        return head + String.format("%08d", blocks.computeIfAbsent(series, Block::new).next());
+    }
+
+    /**
+     * Advances the series row by one block and returns the first number of the block. Each step is
+     * its own tiny transaction, so the row lock is never held for the caller's transaction.
+     */
+    private long reserve(String series) {
+        Long end = reserveTx.execute(status -> advance(series));
+        if (end == null) {
+            try {
+                end = reserveTx.execute(status -> {
+                    jdbc.update("INSERT INTO invoice_number_series (series_key, next_value) VALUES (?, ?)",
+                            series, 1L + blockSize);
+                    return 1L + blockSize;
+                });
+            } catch (DuplicateKeyException raced) {
+                // another node created the series first
+                end = reserveTx.execute(status -> advance(series));
+            }
+        }
+        return end - blockSize;
+    }
+
+    private Long advance(String series) {
+        int updated = jdbc.update(
+                "UPDATE invoice_number_series SET next_value = next_value + ? WHERE series_key = ?", blockSize, series);
+        if (updated == 0) return null;
+        return jdbc.queryForObject("SELECT next_value FROM invoice_number_series WHERE series_key = ?", Long.class, series);
+    }
+
+    /**
+     * The block a series is handing out. A thread that finds it used up reserves the next one itself, with no
+     * lock held: a waiting thread would keep its own transaction's connection while the reserving thread
+     * needs another from the pool. Threads that run out at the same moment each reserve a block; the ones
+     * that lose the swap use one number from theirs and leave the rest unused, like a restart does.
+     */
+    private final class Block {
+        private final String series;
+        private final AtomicReference<Range> current = new AtomicReference<>(new Range(0, 0));
+
+        Block(String series) {
+            this.series = series;
+        }
+
+        long next() {
+            Range range = current.get();
+            long number = range.next().getAndIncrement();
+            if (number < range.end()) return number;
+            long start = reserve(series);
+            current.compareAndSet(range, new Range(start + 1, start + blockSize));
+            return start;
+        }
+    }
+
+    private record Range(AtomicLong next, long end) {
+        Range(long next, long end) {
+            this(new AtomicLong(next), end);
+        }
     }
 }
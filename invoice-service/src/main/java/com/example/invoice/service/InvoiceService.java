@@ -1,13 +1,23 @@
 package com.example.invoice.service;
 
+import com.example.invoice.common.CursorPage;
+import com.example.invoice.common.KeysetCursor;
 import com.example.invoice.common.MoneyUtils;
+import com.example.invoice.model.EmailOutboxMessage;
 import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceRevision;
+import com.example.invoice.model.InvoiceSearchCriteria;
 import com.example.invoice.model.InvoiceStatus;
+import com.example.invoice.model.InvoiceSummary;
 import com.example.invoice.model.Payment;
 import com.example.invoice.model.Customer;
-import com.example.invoice.repository.CustomerRepository;
+import com.example.invoice.repository.EmailOutboxRepository;
 import com.example.invoice.repository.InvoiceRepository;
 import com.example.invoice.repository.PaymentRepository;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Hibernate;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
@@ -15,47 +25,137 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 public class InvoiceService {
+    private static final int MAX_BULK_SIZE = 1000;
+    private static final int BULK_FLUSH_SIZE = 50;
+
+    /** What to email; blank fields fall back to the customer's address and a standard subject and text. */
+    public record EmailRequest(String to, String subject, String message) {}
+
     private final InvoiceRepository invoiceRepository;
-    private final CustomerRepository customerRepository;
+    private final CustomerService customerService;
     private final PaymentRepository paymentRepository;
     private final InvoiceNumberGenerator numberGenerator;
+    private final EntityManager entityManager;
+    private final PdfCache pdfCache;
+    private final PdfService pdfService;
+    private final EmailOutboxRepository outboxRepository;
 
     public InvoiceService(InvoiceRepository invoiceRepository,
-                          CustomerRepository customerRepository,
+                          CustomerService customerService,
                           PaymentRepository paymentRepository,
-                          InvoiceNumberGenerator numberGenerator) {
+                          InvoiceNumberGenerator numberGenerator,
+                          EntityManager entityManager,
+                          PdfCache pdfCache,
+                          PdfService pdfService,
+                          EmailOutboxRepository outboxRepository) {
         this.invoiceRepository = invoiceRepository;
-        this.customerRepository = customerRepository;
+        this.customerService = customerService;
         this.paymentRepository = paymentRepository;
         this.numberGenerator = numberGenerator;
+        this.entityManager = entityManager;
+        this.pdfCache = pdfCache;
+        this.pdfService = pdfService;
+        this.outboxRepository = outboxRepository;
+    }
+
+    /**
+     * Full invoices for the page; only the requested collections are initialized (batch fetched),
+     * the others are left unloaded.
+     */
+    @Transactional(readOnly = true)
+    public Page<Invoice> list(Pageable pageable, Set<String> expand) {
+        Page<Invoice> page = invoiceRepository.findAll(pageable);
+        page.forEach(inv -> {
+            if (expand.contains("items")) Hibernate.initialize(inv.getItems());
+            if (expand.contains("payments")) Hibernate.initialize(inv.getPayments());
+        });
+        return page;
+    }
+
+    public Page<InvoiceSummary> listSummaries(Pageable pageable) {
+        return invoiceRepository.findSummaries(pageable);
     }
 
-    public Page<Invoice> list(Pageable pageable) {
-        return invoiceRepository.findAll(pageable);
+    public Page<InvoiceSummary> search(InvoiceSearchCriteria criteria, Pageable pageable) {
+        return invoiceRepository.search(criteria, pageable);
+    }
+
+    /** Keyset page ordered by (issueDate, id); {@code after} is the cursor from the previous page. */
+    public CursorPage<InvoiceSummary> scrollSummaries(String after, int limit) {
+        Limit fetch = Limit.of(limit + 1);
+        List<InvoiceSummary> rows;
+        if (after == null || after.isBlank()) {
+            rows = invoiceRepository.findSummariesFirst(fetch);
+        } else {
+            KeysetCursor<LocalDate> cursor = KeysetCursor.decode(after, LocalDate::parse);
+            rows = invoiceRepository.findSummariesAfter(cursor.key(), cursor.id(), fetch);
+        }
+        return CursorPage.of(rows, limit, s -> new KeysetCursor<>(s.issueDate(), s.id()));
     }
 
     @Transactional
     public Invoice create(Invoice invoice) {
-        Customer c = customerRepository.findById(invoice.getCustomer().getId()).orElseThrow();
+        Customer c = customerService.get(invoice.getCustomer().getId());
+        prepareNew(invoice, c);
+        return invoiceRepository.save(invoice);
+    }
+
+    /**
+     * Creates many invoices in one transaction. Customers are resolved with a single query and the
+     * persistence context is flushed and cleared every {@value #BULK_FLUSH_SIZE} invoices so inserts
+     * go out as JDBC batches and memory stays flat.
+     */
+    @Transactional
+    public List<InvoiceSummary> createAll(List<Invoice> invoices) {
+        if (invoices.size() > MAX_BULK_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_BULK_SIZE + " invoices per bulk request");
+        }
+        Set<Long> customerIds = invoices.stream().map(i -> i.getCustomer().getId()).collect(Collectors.toSet());
+        Map<Long, Customer> customers = customerService.findAll(customerIds);
+        List<InvoiceSummary> created = new ArrayList<>(invoices.size());
+        for (int n = 0; n < invoices.size(); n++) {
+            Invoice invoice = invoices.get(n);
+            Customer c = customers.get(invoice.getCustomer().getId());
+            if (c == null) throw new NoSuchElementException("Customer " + invoice.getCustomer().getId() + " not found");
+            prepareNew(invoice, c);
+            entityManager.persist(invoice);
+            if ((n + 1) % BULK_FLUSH_SIZE == 0) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+            created.add(InvoiceSummary.of(invoice));
+        }
+        return created;
+    }
+
+    private void prepareNew(Invoice invoice, Customer c) {
         invoice.setCustomer(c);
-        // Always assign a new 8-digit invoice number on creation
-        invoice.setInvoiceNumber(numberGenerator.nextNumber());
-        invoice.getItems().forEach(i -> {
-            i.setInvoice(invoice);
-            var line = MoneyUtils.mul(i.getQuantity(), i.getUnitPrice());
-            var tax = MoneyUtils.mul(line, i.getTaxRate().movePointLeft(2));
-            i.setLineTotal(MoneyUtils.add(line, tax));
-        });
+        // Always assign a new invoice number on creation
+        invoice.setInvoiceNumber(numberGenerator.nextNumber(invoice.getIssueDate()));
+        invoice.getItems().forEach(i -> i.setInvoice(invoice));
         recomputeTotals(invoice);
-        return invoiceRepository.save(invoice);
     }
 
+    /**
+     * Replaces the editable fields. With an {@code expectedVersion} (from {@code If-Match}) the update fails
+     * unless the invoice is still at that version when it is written.
+     */
     @Transactional
-    public Invoice update(Long id, Invoice updated) {
-        Invoice inv = invoiceRepository.findById(id).orElseThrow();
+    public Invoice update(Long id, Invoice updated, Long expectedVersion) {
+        Invoice inv = loadDetail(id);
+        if (expectedVersion != null && !expectedVersion.equals(inv.getVersion())) {
+            throw new ObjectOptimisticLockingFailureException(Invoice.class, id);
+        }
         inv.setNotes(updated.getNotes());
         inv.setCurrency(updated.getCurrency());
         inv.setIssueDate(updated.getIssueDate());
@@ -63,60 +163,150 @@ public class InvoiceService {
         inv.getItems().clear();
         updated.getItems().forEach(i -> {
             i.setInvoice(inv);
-            var line = MoneyUtils.mul(i.getQuantity(), i.getUnitPrice());
-            var tax = MoneyUtils.mul(line, i.getTaxRate().movePointLeft(2));
-            i.setLineTotal(MoneyUtils.add(line, tax));
             inv.getItems().add(i);
         });
         inv.setUpdatedAt(Instant.now());
         recomputeTotals(inv);
+        pdfService.discardSnapshot(inv);
+        pdfCache.evict(id);
         return inv;
     }
 
-    public Invoice get(Long id) { return invoiceRepository.findById(id).orElseThrow(); }
+    @Transactional(readOnly = true)
+    public Invoice get(Long id) { return loadDetail(id); }
+
+    /** Cheap check of what {@link #get} would return; one single-row query. */
+    public InvoiceRevision revision(Long id) {
+        return invoiceRepository.findRevisionById(id).orElseThrow();
+    }
 
     @Transactional
-    public void delete(Long id) { invoiceRepository.deleteById(id); }
+    public void delete(Long id) {
+        invoiceRepository.findById(id).ifPresent(inv -> {
+            pdfService.discardSnapshot(inv);
+            invoiceRepository.delete(inv);
+        });
+        pdfCache.evict(id);
+    }
 
+    /**
+     * Marks a draft as sent. The printed form is fixed from here on, so once the change commits it is
+     * rendered once on the {@link PdfRenderQueue} and kept as the invoice's snapshot.
+     */
     @Transactional
     public Invoice finalizeInvoice(Long id) {
-        Invoice inv = invoiceRepository.findById(id).orElseThrow();
-        if (inv.getStatus() == InvoiceStatus.DRAFT) {
-            // Number is generated at create-time; do not change here
-            inv.setStatus(InvoiceStatus.SENT);
-            inv.setUpdatedAt(Instant.now());
-        }
+        Invoice inv = loadDetail(id);
+        if (markSent(inv)) pdfService.snapshotAfterCommit(id);
         return inv;
     }
 
+    /**
+     * Finalizes a draft and queues the email to the customer in the same transaction, so the email exists
+     * if and only if the change commits. {@link EmailOutboxDispatcher} sends it later from the account of
+     * {@code principalName}; rendering the PDF it attaches also stores the snapshot.
+     */
+    @Transactional
+    public EmailOutboxMessage sendByEmail(Long id, String principalName, EmailRequest request) {
+        Invoice inv = loadDetail(id);
+        markSent(inv);
+        EmailRequest req = request == null ? new EmailRequest(null, null, null) : request;
+        String to = hasText(req.to()) ? req.to().trim() : inv.getCustomer().getEmail();
+        if (!hasText(to)) {
+            throw new IllegalArgumentException("Customer " + inv.getCustomer().getId() + " has no email address");
+        }
+        return outboxRepository.save(email(inv, principalName, to, req, null));
+    }
+
+    /**
+     * One batch of a bulk send ({@link BulkEmailService}): finalizes the drafts among {@code ids} and queues
+     * an email to each customer, in one transaction. Nothing is rendered here; the dispatcher renders each
+     * PDF after the commit. Invoices whose customer has no address are left as they are; returns what was
+     * queued.
+     */
+    @Transactional
+    public List<EmailOutboxMessage> queueEmails(List<Long> ids, String principalName, EmailRequest request,
+                                                String batchId) {
+        List<EmailOutboxMessage> queued = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Invoice inv = loadDetail(id);
+            if (!hasText(inv.getCustomer().getEmail())) continue;
+            markSent(inv);
+            queued.add(email(inv, principalName, inv.getCustomer().getEmail(), request, batchId));
+        }
+        return outboxRepository.saveAll(queued);
+    }
+
+    /** Returns whether {@code inv} was a draft. */
+    private boolean markSent(Invoice inv) {
+        if (inv.getStatus() != InvoiceStatus.DRAFT) return false;
+        // Number is generated at create-time; do not change here
+        inv.setStatus(InvoiceStatus.SENT);
+        inv.setUpdatedAt(Instant.now());
+        pdfCache.evict(inv.getId());
+        return true;
+    }
+
+    private EmailOutboxMessage email(Invoice inv, String principalName, String to, EmailRequest req, String batchId) {
+        EmailOutboxMessage message = new EmailOutboxMessage();
+        message.setInvoice(inv);
+        message.setBatchId(batchId);
+        message.setPrincipalName(principalName);
+        message.setRecipient(to);
+        message.setSubject(hasText(req.subject()) ? req.subject() : "Invoice " + inv.getInvoiceNumber());
+        message.setBody(hasText(req.message()) ? req.message() : defaultMessage(inv));
+        message.setAttachPdf(true);
+        return message;
+    }
+
     @Transactional
     public Payment addPayment(Long invoiceId, Payment p) {
-        Invoice inv = invoiceRepository.findById(invoiceId).orElseThrow();
+        Invoice inv = invoiceRepository.findWithPaymentsById(invoiceId).orElseThrow();
         p.setInvoice(inv);
         Payment saved = paymentRepository.save(p);
         inv.getPayments().add(saved);
-        recomputeTotals(inv);
+        applyPayments(inv);
+        inv.setUpdatedAt(Instant.now());
+        // status and balance due are printed, so the finalized snapshot is re-rendered on next download
+        pdfService.discardSnapshot(inv);
+        pdfCache.evict(invoiceId);
         return saved;
     }
 
+    /**
+     * Items (with customer) come in one join; payments follow in a second select so two bags are never
+     * join-fetched together.
+     */
+    private Invoice loadDetail(Long id) {
+        Invoice inv = invoiceRepository.findWithItemsById(id).orElseThrow();
+        Hibernate.initialize(inv.getPayments());
+        return inv;
+    }
+
+    private static String defaultMessage(Invoice inv) {
+        return "Dear " + inv.getCustomer().getName() + ",\n\n"
+                + "Invoice " + inv.getInvoiceNumber() + " for " + inv.getBalanceDue() + " " + inv.getCurrency()
+                + " is due on " + inv.getDueDate() + ".\n\nThank you for your business.";
+    }
+
+    private static boolean hasText(String s) {
+        return s != null && !s.isBlank();
+    }
+
+    /** Computes every line once (setting its lineTotal) and rolls the results up into the invoice. */
     private void recomputeTotals(Invoice inv) {
-        BigDecimal sub = BigDecimal.ZERO;
-        BigDecimal tax = BigDecimal.ZERO;
-        BigDecimal total = BigDecimal.ZERO;
-        for (var i : inv.getItems()) {
-            var line = MoneyUtils.mul(i.getQuantity(), i.getUnitPrice());
-            var lineTax = MoneyUtils.mul(line, i.getTaxRate().movePointLeft(2));
-            sub = MoneyUtils.add(sub, line);
-            tax = MoneyUtils.add(tax, lineTax);
-            total = MoneyUtils.add(total, MoneyUtils.add(line, lineTax));
-        }
+        TotalsCalculator.Totals totals = TotalsCalculator.computeLines(inv.getItems());
+        inv.setSubTotal(totals.subTotal());
+        inv.setTaxTotal(totals.taxTotal());
+        inv.setTotal(totals.total());
+        applyPayments(inv);
+    }
+
+    /** Derives balance and payment status from the stored total, so items need not be loaded. */
+    private void applyPayments(Invoice inv) {
         BigDecimal paid = inv.getPayments().stream()
                 .map(Payment::getAmount)
                 .reduce(BigDecimal.ZERO, MoneyUtils::add);
-        inv.setSubTotal(sub);
-        inv.setTaxTotal(tax);
-        inv.setTotal(total);
-        inv.setBalanceDue(MoneyUtils.sub(total, paid));
+        inv.setBalanceDue(MoneyUtils.sub(inv.getTotal(), paid));
         if (inv.getBalanceDue().compareTo(BigDecimal.ZERO) == 0 && !inv.getPayments().isEmpty()) {
             inv.setStatus(InvoiceStatus.PAID);
         } else if (paid.compareTo(BigDecimal.ZERO) > 0) {
@@ -0,0 +1,151 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.InvoiceSearchCriteria;
+import com.example.invoice.model.InvoiceSummary;
+import com.example.invoice.model.InvoiceVersion;
+import com.example.invoice.repository.InvoiceRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Renders many invoice PDFs into one ZIP. Rendering runs on a fixed pool shared by all archive requests
+ * ({@code app.pdf.archive-concurrency}, default one thread per core); each request keeps at most that
+ * many PDFs in flight and writes every entry as soon as it completes, so memory stays bounded no matter
+ * how many invoices are requested.
+ */
+@Service
+public class PdfArchiveService {
+    public static final int MAX_ARCHIVE_SIZE = 1000;
+
+    private record Rendered(String stem, byte[] bytes) {}
+
+    private final InvoiceRepository invoiceRepository;
+    private final PdfService pdfService;
+    private final ExecutorService workers;
+    private final int concurrency;
+
+    public PdfArchiveService(InvoiceRepository invoiceRepository,
+                             PdfService pdfService,
+                             @Value("${app.pdf.archive-concurrency:0}") int concurrency) {
+        this.invoiceRepository = invoiceRepository;
+        this.pdfService = pdfService;
+        this.concurrency = concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors();
+        this.workers = Executors.newFixedThreadPool(this.concurrency,
+                Thread.ofPlatform().name("pdf-archive-", 0).daemon().factory());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /** Versions for the given ids, in request order; fails before anything is streamed if one is unknown. */
+    public List<InvoiceVersion> resolve(Collection<Long> ids) {
+        Set<Long> unique = new LinkedHashSet<>(ids);
+        if (unique.isEmpty()) throw new IllegalArgumentException("No invoices requested");
+        if (unique.size() > MAX_ARCHIVE_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_ARCHIVE_SIZE + " invoices per archive");
+        }
+        Map<Long, InvoiceVersion> byId = invoiceRepository.findVersionsByIdIn(unique).stream()
+                .collect(Collectors.toMap(InvoiceVersion::id, Function.identity()));
+        if (byId.size() != unique.size()) {
+            Set<Long> missing = new HashSet<>(unique);
+            missing.removeAll(byId.keySet());
+            throw new NoSuchElementException("Invoices not found: " + missing);
+        }
+        return unique.stream().map(byId::get).toList();
+    }
+
+    public List<InvoiceVersion> resolve(InvoiceSearchCriteria criteria) {
+        Page<InvoiceSummary> page = invoiceRepository.search(criteria, PageRequest.of(0, MAX_ARCHIVE_SIZE));
+        if (page.getTotalElements() > MAX_ARCHIVE_SIZE) {
+            throw new IllegalArgumentException(page.getTotalElements() + " invoices match; narrow the filter to at most "
+                    + MAX_ARCHIVE_SIZE);
+        }
+        if (page.isEmpty()) throw new IllegalArgumentException("No invoices match the filter");
+        return invoiceRepository.findVersionsByIdIn(page.getContent().stream().map(InvoiceSummary::id).toList());
+    }
+
+    /**
+     * Writes one {@code <invoiceNumber>.pdf} entry per invoice, in completion order, numbered like
+     * {@code INV_1 (2).pdf} when two invoice numbers sanitize to the same name.
+     */
+    public void writeZip(List<InvoiceVersion> versions, OutputStream out) throws IOException {
+        CompletionService<Rendered> completion = new ExecutorCompletionService<>(workers);
+        List<Future<Rendered>> inFlight = new ArrayList<>();
+        Iterator<InvoiceVersion> pending = versions.iterator();
+        Set<String> names = new HashSet<>();
+        try {
+            ZipOutputStream zip = new ZipOutputStream(out);
+            // PDF content streams are already deflated
+            zip.setLevel(Deflater.BEST_SPEED);
+            while (inFlight.size() < concurrency && pending.hasNext()) {
+                inFlight.add(completion.submit(render(pending.next())));
+            }
+            while (!inFlight.isEmpty()) {
+                Future<Rendered> done = completion.take();
+                inFlight.remove(done);
+                if (pending.hasNext()) inFlight.add(completion.submit(render(pending.next())));
+                Rendered pdf = done.get();
+                zip.putNextEntry(new ZipEntry(unique(names, pdf.stem())));
+                zip.write(pdf.bytes());
+                zip.closeEntry();
+            }
+            zip.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("PDF archive interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new IllegalStateException("Failed to render PDF", e.getCause());
+        } finally {
+            // client went away or a render failed: do not keep rendering for nobody
+            inFlight.forEach(f -> f.cancel(true));
+        }
+    }
+
+    private Callable<Rendered> render(InvoiceVersion version) {
+        return () -> {
+            String number = version.invoiceNumber();
+            String base = number == null || number.isBlank() ? "invoice-" + version.id() : number;
+            String stem = base.replaceAll("[^a-zA-Z0-9._-]", "_");
+            return new Rendered(stem, pdfService.cachedInvoicePdf(version));
+        };
+    }
+
+    private static String unique(Set<String> names, String stem) {
+        String candidate = stem + ".pdf";
+        for (int n = 2; !names.add(candidate); n++) {
+            candidate = stem + " (" + n + ").pdf";
+        }
+        return candidate;
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.invoice.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Rendered invoice PDFs keyed by invoice id and version. The memory tier is bounded by total bytes and
+ * skips PDFs over {@code app.pdf-cache.max-entry-bytes}; the optional disk tier
+ * ({@code app.pdf-cache.disk-dir}) survives restarts and is trimmed oldest-first.
+ * A lookup only hits when the stored version matches, so a stale entry can never be served even if an
+ * eviction is missed; {@link #evict} just reclaims space early.
+ */
+@Component
+public class PdfCache {
+    private static final Logger log = LoggerFactory.getLogger(PdfCache.class);
+
+    private record Entry(Instant version, byte[] bytes) {}
+
+    private final Cache<Long, Entry> memory;
+    private final Path diskDir;
+    private final long diskMaxBytes;
+    private final int maxEntryBytes;
+
+    public PdfCache(@Value("${app.pdf-cache.max-bytes:67108864}") long maxBytes,
+                    @Value("${app.pdf-cache.max-entry-bytes:2097152}") int maxEntryBytes,
+                    @Value("${app.pdf-cache.disk-dir:}") String diskDir,
+                    @Value("${app.pdf-cache.disk-max-bytes:536870912}") long diskMaxBytes) throws IOException {
+        this.memory = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Long id, Entry e) -> e.bytes().length)
+                .build();
+        this.diskDir = diskDir.isBlank() ? null : Paths.get(diskDir).toAbsolutePath().normalize();
+        this.diskMaxBytes = diskMaxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        if (this.diskDir != null) Files.createDirectories(this.diskDir);
+    }
+
+    /** The cached PDF for exactly this version, or {@code null}. */
+    public byte[] get(Long invoiceId, Instant version) {
+        Entry e = memory.getIfPresent(invoiceId);
+        if (e != null && e.version().equals(version)) return e.bytes();
+        if (diskDir == null) return null;
+        Path file = diskFile(invoiceId, version);
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            memory.put(invoiceId, new Entry(version, bytes));
+            return bytes;
+        } catch (IOException missing) {
+            return null;
+        }
+    }
+
+    /** Larger PDFs are streamed to the client but never held for caching. */
+    public int maxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    public void put(Long invoiceId, Instant version, byte[] bytes) {
+        if (bytes.length > maxEntryBytes) return;
+        memory.put(invoiceId, new Entry(version, bytes));
+        if (diskDir == null) return;
+        try {
+            deleteDiskFiles(invoiceId);
+            Path tmp = Files.createTempFile(diskDir, invoiceId + "-", ".tmp");
+            Files.write(tmp, bytes);
+            Files.move(tmp, diskFile(invoiceId, version), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            trimDisk();
+        } catch (IOException | UncheckedIOException e) {
+            // the disk tier is best effort; the memory tier already holds the entry
+            log.warn("Could not write PDF cache file for invoice {}", invoiceId, e);
+        }
+    }
+
+    public void evict(Long invoiceId) {
+        memory.invalidate(invoiceId);
+        if (diskDir == null) return;
+        try {
+            deleteDiskFiles(invoiceId);
+        } catch (IOException e) {
+            log.warn("Could not delete PDF cache files for invoice {}", invoiceId, e);
+        }
+    }
+
+    private Path diskFile(Long invoiceId, Instant version) {
+        return diskDir.resolve(invoiceId + "-" + version.getEpochSecond() + "." + version.getNano() + ".pdf");
+    }
+
+    private void deleteDiskFiles(Long invoiceId) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(diskDir, invoiceId + "-*.pdf")) {
+            for (Path f : files) Files.deleteIfExists(f);
+        }
+    }
+
+    private void trimDisk() throws IOException {
+        List<Path> files;
+        try (Stream<Path> s = Files.list(diskDir)) {
+            files = new ArrayList<>(s.filter(p -> p.toString().endsWith(".pdf")).toList());
+        }
+        long total = 0;
+        for (Path f : files) total += size(f);
+        if (total <= diskMaxBytes) return;
+        files.sort(Comparator.comparing(PdfCache::lastModified));
+        for (Path f : files) {
+            if (total <= diskMaxBytes) break;
+            total -= size(f);
+            Files.deleteIfExists(f);
+        }
+    }
+
+    private static long size(Path f) {
+        try {
+            return Files.size(f);
+        } catch (IOException gone) {
+            return 0;
+        }
+    }
+
+    private static Instant lastModified(Path f) {
+        try {
+            return Files.readAttributes(f, BasicFileAttributes.class).lastModifiedTime().toInstant();
+        } catch (IOException gone) {
+            return Instant.EPOCH;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.InvoiceVersion;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * Fire-and-poll PDF rendering for heavy callers. Jobs run on the {@link PdfRenderQueue} bulkhead and are
+ * kept in memory, result included, for {@code app.pdf.jobs.ttl} (default 15 minutes) after submission;
+ * at most {@code app.pdf.jobs.max-jobs} are retained.
+ */
+@Service
+public class PdfJobService {
+    public enum Status { QUEUED, RUNNING, DONE, FAILED }
+
+    public record JobStatus(String id, Long invoiceId, Status status, Instant createdAt, Instant completedAt,
+                            String error) {}
+
+    public record Result(String filename, byte[] bytes) {}
+
+    private static final class Job {
+        final String id = UUID.randomUUID().toString();
+        final Instant createdAt = Instant.now();
+        final InvoiceVersion version;
+        volatile Status status = Status.QUEUED;
+        volatile Instant completedAt;
+        volatile String error;
+        volatile byte[] bytes;
+
+        Job(InvoiceVersion version) { this.version = version; }
+
+        JobStatus snapshot() {
+            return new JobStatus(id, version.id(), status, createdAt, completedAt, error);
+        }
+    }
+
+    private final PdfService pdfService;
+    private final PdfRenderQueue renderQueue;
+    private final Cache<String, Job> jobs;
+
+    public PdfJobService(PdfService pdfService,
+                         PdfRenderQueue renderQueue,
+                         @Value("${app.pdf.jobs.ttl:15m}") Duration ttl,
+                         @Value("${app.pdf.jobs.max-jobs:500}") long maxJobs) {
+        this.pdfService = pdfService;
+        this.renderQueue = renderQueue;
+        this.jobs = Caffeine.newBuilder().expireAfterWrite(ttl).maximumSize(maxJobs).build();
+    }
+
+    /** Queues a render of the invoice's current version; throws RejectedExecutionException when saturated. */
+    public JobStatus submit(Long invoiceId) {
+        Job job = new Job(pdfService.version(invoiceId));
+        renderQueue.submit(() -> {
+            job.status = Status.RUNNING;
+            return pdfService.cachedInvoicePdf(job.version);
+        }).whenComplete((bytes, failure) -> {
+            if (failure != null) {
+                job.error = failure.getCause() != null ? failure.getCause().toString() : failure.toString();
+                job.status = Status.FAILED;
+            } else {
+                job.bytes = bytes;
+                job.status = Status.DONE;
+            }
+            job.completedAt = Instant.now();
+        });
+        jobs.put(job.id, job);
+        return job.snapshot();
+    }
+
+    public JobStatus status(String jobId) {
+        return find(jobId).snapshot();
+    }
+
+    /** The rendered PDF; IllegalStateException while the job is still queued, running or failed. */
+    public Result result(String jobId) {
+        Job job = find(jobId);
+        if (job.status != Status.DONE) throw new IllegalStateException("PDF job " + jobId + " is " + job.status);
+        String number = job.version.invoiceNumber();
+        String filename = number == null || number.isBlank() ? "invoice-" + job.version.id() : number;
+        return new Result(filename, job.bytes);
+    }
+
+    private Job find(String jobId) {
+        Job job = jobs.getIfPresent(jobId);
+        if (job == null) throw new NoSuchElementException("PDF job " + jobId + " not found or expired");
+        return job;
+    }
+}
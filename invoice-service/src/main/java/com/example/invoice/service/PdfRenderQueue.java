@@ -0,0 +1,86 @@
+package com.example.invoice.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Bulkhead for CPU-heavy PDF rendering: a fixed pool ({@code app.pdf.render.threads}, default one per
+ * core) with a bounded queue ({@code app.pdf.render.queue-capacity}), so a burst of downloads can never
+ * occupy Tomcat's request threads. When the queue is full {@link #submit} throws
+ * {@link RejectedExecutionException}, which callers turn into 429.
+ * <p>
+ * Metrics are published under {@code executor.*{name="pdf-render"}} (queued, active, execution and
+ * queue-wait timers) plus {@code pdf.render.rejected}.
+ */
+@Component
+public class PdfRenderQueue {
+    static final String NAME = "pdf-render";
+
+    private final ThreadPoolExecutor pool;
+    private final ExecutorService executor;
+    private final Counter rejected;
+    private final AsyncTaskExecutor taskExecutor;
+
+    public PdfRenderQueue(MeterRegistry registry,
+                          @Value("${app.pdf.render.threads:0}") int threads,
+                          @Value("${app.pdf.render.queue-capacity:50}") int queueCapacity) {
+        int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.pool = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name(NAME + "-", 0).daemon().factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor = ExecutorServiceMetrics.monitor(registry, pool, NAME, List.of());
+        this.rejected = Counter.builder("pdf.render.rejected")
+                .description("PDF renders refused because the render queue was full")
+                .register(registry);
+        this.taskExecutor = new TaskExecutorAdapter(task -> {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                rejected.increment();
+                throw e;
+            }
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * The same bulkhead for Spring MVC async handlers ({@code WebAsyncTask}); a full queue surfaces as
+     * {@link org.springframework.core.task.TaskRejectedException}.
+     */
+    public AsyncTaskExecutor taskExecutor() {
+        return taskExecutor;
+    }
+
+    public int queued() {
+        return pool.getQueue().size();
+    }
+}
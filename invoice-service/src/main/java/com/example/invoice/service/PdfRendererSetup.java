@@ -0,0 +1,85 @@
+package com.example.invoice.service;
+
+import com.openhtmltopdf.extend.FSCacheEx;
+import com.openhtmltopdf.extend.FSCacheValue;
+import com.openhtmltopdf.extend.impl.FSDefaultCacheStore;
+import com.openhtmltopdf.pdfboxout.PdfRendererBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Render setup shared by every {@link PdfRendererBuilder}: font files from {@code app.pdf.fonts-dir}
+ * (family = file name without extension) are read once at startup, font metrics are kept in one
+ * process-wide cache store, and the HTML is parsed with a per-thread {@link DocumentBuilder} instead
+ * of openhtmltopdf looking up fresh parser factories on every render.
+ */
+@Component
+public class PdfRendererSetup {
+    private record Font(String family, byte[] bytes) {}
+
+    private final FSCacheEx<String, FSCacheValue> fontMetrics = new FSDefaultCacheStore();
+    private final List<Font> fonts = new ArrayList<>();
+    private final ThreadLocal<DocumentBuilder> parsers = ThreadLocal.withInitial(PdfRendererSetup::newParser);
+
+    public PdfRendererSetup(@Value("${app.pdf.fonts-dir:}") String fontsDir) throws IOException {
+        if (fontsDir.isBlank()) return;
+        try (Stream<Path> files = Files.list(Paths.get(fontsDir))) {
+            for (Path f : files.filter(p -> p.toString().matches("(?i).*\\.(ttf|otf)$")).sorted().toList()) {
+                String name = f.getFileName().toString();
+                fonts.add(new Font(name.substring(0, name.lastIndexOf('.')), Files.readAllBytes(f)));
+            }
+        }
+    }
+
+    public Document parse(Reader html) throws IOException {
+        DocumentBuilder parser = parsers.get();
+        try {
+            return parser.parse(new InputSource(html));
+        } catch (SAXException e) {
+            throw new IOException("Invoice template produced malformed XHTML", e);
+        } finally {
+            parser.reset();
+        }
+    }
+
+    /** A builder for one render of {@code document} into {@code out}; builders themselves are single-use. */
+    public PdfRendererBuilder builder(Document document, OutputStream out) {
+        PdfRendererBuilder builder = new PdfRendererBuilder();
+        builder.useFastMode();
+        builder.useCacheStore(PdfRendererBuilder.CacheStore.PDF_FONT_METRICS, fontMetrics);
+        for (Font font : fonts) builder.useFont(() -> new ByteArrayInputStream(font.bytes()), font.family());
+        builder.withW3cDocument(document, null);
+        builder.toStream(out);
+        return builder;
+    }
+
+    private static DocumentBuilder newParser() {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setExpandEntityReferences(false);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", false);
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            return factory.newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
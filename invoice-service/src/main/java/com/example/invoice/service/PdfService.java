@@ -1,43 +1,211 @@
 package com.example.invoice.service;
 
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.thymeleaf.TemplateEngine;
 import org.thymeleaf.context.Context;
-import com.openhtmltopdf.pdfboxout.PdfRendererBuilder;
 import com.example.invoice.repository.InvoiceRepository;
 import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceStatus;
+import com.example.invoice.model.InvoiceVersion;
 
 import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.RejectedExecutionException;
 
 @Service
 public class PdfService {
     private final TemplateEngine templateEngine;
     private final InvoiceRepository invoiceRepository;
+    private final PdfCache pdfCache;
+    private final AttachmentStorageService storage;
+    private final PdfRendererSetup rendererSetup;
+    private final PdfRenderQueue renderQueue;
 
-    public PdfService(TemplateEngine templateEngine, InvoiceRepository invoiceRepository) {
+    public PdfService(TemplateEngine templateEngine, InvoiceRepository invoiceRepository, PdfCache pdfCache,
+                      AttachmentStorageService storage, PdfRendererSetup rendererSetup, PdfRenderQueue renderQueue) {
         this.templateEngine = templateEngine;
         this.invoiceRepository = invoiceRepository;
+        this.pdfCache = pdfCache;
+        this.storage = storage;
+        this.rendererSetup = rendererSetup;
+        this.renderQueue = renderQueue;
+    }
+
+    /** Cheap check of what the current PDF for an invoice would be; one single-row query. */
+    public InvoiceVersion version(Long id) {
+        return invoiceRepository.findVersionById(id).orElseThrow();
+    }
+
+    /** The stored snapshot of a finalized invoice; only valid when {@code version.pdfSnapshotSha256()} is set. */
+    public Path snapshotPath(InvoiceVersion version) {
+        return storage.loadContentAddressed(version.pdfSnapshotSha256());
+    }
+
+    /** The cached PDF for {@code version}, or {@code null} when it would have to be rendered. */
+    public byte[] cachedOnly(InvoiceVersion version) {
+        return pdfCache.get(version.id(), version.modifiedAt());
+    }
+
+    /**
+     * The PDF for {@code version}: the stored snapshot when there is one, otherwise the cache, rendering
+     * only on a miss. A fresh render is stored under the version of the invoice it was actually rendered
+     * from, so a concurrent update cannot mislabel it; a finalized invoice whose snapshot went stale gets
+     * a new one.
+     */
+    public byte[] cachedInvoicePdf(InvoiceVersion version) {
+        if (version.pdfSnapshotSha256() != null) {
+            try {
+                return Files.readAllBytes(snapshotPath(version));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        byte[] cached = cachedOnly(version);
+        if (cached != null) return cached;
+        return renderAndKeep(version, OutputStream.nullOutputStream(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Renders {@code version} straight into {@code out} (the servlet stream) on a cache miss. A copy is
+     * kept for the cache only while it fits {@code app.pdf-cache.max-entry-bytes}, so a large multi-page
+     * invoice never sits in the heap whole, unless it is due for a snapshot.
+     */
+    public void writeInvoicePdf(InvoiceVersion version, OutputStream out) {
+        renderAndKeep(version, out, pdfCache.maxEntryBytes());
+    }
+
+    /** Returns the bytes it kept, or {@code null} if the PDF outgrew {@code keepLimit}. */
+    private byte[] renderAndKeep(InvoiceVersion version, OutputStream out, int keepLimit) {
+        Invoice invoice = invoiceRepository.findWithItemsById(version.id()).orElseThrow();
+        boolean snapshotDue = invoice.getStatus() != InvoiceStatus.DRAFT && invoice.getPdfSnapshotSha256() == null;
+        CapturingOutputStream tee = new CapturingOutputStream(out, snapshotDue ? Integer.MAX_VALUE : keepLimit);
+        render(invoice, tee);
+        byte[] bytes = tee.captured();
+        if (bytes == null) return null;
+        pdfCache.put(invoice.getId(), InvoiceVersion.of(invoice).modifiedAt(), bytes);
+        if (snapshotDue) {
+            String sha256 = store(bytes);
+            var renderedAt = invoice.getUpdatedAt() != null ? invoice.getUpdatedAt() : invoice.getCreatedAt();
+            invoiceRepository.attachPdfSnapshot(invoice.getId(), sha256, renderedAt);
+        }
+        return bytes;
     }
 
     public byte[] renderInvoicePdf(Long id) {
-        Invoice invoice = invoiceRepository.findById(id).orElseThrow();
-        Context ctx = new Context();
-        ctx.setVariable("invoice", invoice);
-        String html = templateEngine.process("invoice", ctx);
-        return htmlToPdf(html);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        render(invoiceRepository.findWithItemsById(id).orElseThrow(), out);
+        return out.toByteArray();
     }
 
-    private byte[] htmlToPdf(String html) {
+    /**
+     * Once the caller's transaction commits, renders the finalized invoice on the {@link PdfRenderQueue} and
+     * stores it as the snapshot. When the queue is full it is left to the first download.
+     */
+    public void snapshotAfterCommit(Long id) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    renderQueue.submit(() -> cachedInvoicePdf(version(id)));
+                } catch (RejectedExecutionException ignored) {
+                    // the snapshot is stored by whichever render of this version comes next
+                }
+            }
+        });
+    }
+
+    /**
+     * Marks the invoice's snapshot stale; the file goes once the transaction commits, and the next download
+     * renders and stores a fresh one.
+     */
+    public void discardSnapshot(Invoice invoice) {
+        String stale = invoice.getPdfSnapshotSha256();
+        if (stale == null) return;
+        invoice.setPdfSnapshotSha256(null);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    storage.deleteContentAddressed(stale);
+                } catch (IOException ignored) {
+                    // an unreferenced snapshot is harmless; it is never served again
+                }
+            }
+        });
+    }
+
+    private String store(byte[] bytes) {
         try {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            PdfRendererBuilder builder = new PdfRendererBuilder();
-            builder.useFastMode();
-            builder.withHtmlContent(html, null);
-            builder.toStream(out);
-            builder.run();
-            return out.toByteArray();
+            return storage.saveContentAddressed(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store PDF snapshot", e);
+        }
+    }
+
+    /** Thymeleaf writes into a reusable char buffer that is parsed in place; the PDF goes straight to {@code out}. */
+    private void render(Invoice invoice, OutputStream out) {
+        Context ctx = new Context();
+        ctx.setVariable("invoice", invoice);
+        HtmlBuffer html = new HtmlBuffer();
+        templateEngine.process("invoice", ctx, html);
+        try {
+            rendererSetup.builder(rendererSetup.parse(html.reader()), out).run();
         } catch (Exception e) {
             throw new RuntimeException("Failed to render PDF", e);
         }
     }
+
+    /** Template output that can be read back without first copying it into a String. */
+    private static final class HtmlBuffer extends CharArrayWriter {
+        HtmlBuffer() { super(16 * 1024); }
+
+        Reader reader() { return new CharArrayReader(buf, 0, count); }
+    }
+
+    /** Passes every byte through and keeps a copy as long as the total stays within {@code limit}. */
+    private static final class CapturingOutputStream extends FilterOutputStream {
+        private final int limit;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        CapturingOutputStream(OutputStream out, int limit) {
+            super(out);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            keep(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            keep(b, off, len);
+        }
+
+        private void keep(byte[] b, int off, int len) {
+            if (copy == null) return;
+            if (copy.size() + (long) len > limit) {
+                copy = null;
+                return;
+            }
+            copy.write(b, off, len);
+        }
+
+        /** Everything written, or {@code null} if it outgrew the limit. */
+        byte[] captured() {
+            return copy == null ? null : copy.toByteArray();
+        }
+    }
 }
@@ -0,0 +1,171 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.InvoiceAttachment;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PNG previews for attachments: images are scaled down, PDFs get their first page rastered. Work runs after
+ * the upload commits on a small pool ({@code app.attachments.thumbnails.threads}, default 2) with a bounded
+ * queue, so a burst of uploads never competes with request threads; when the queue is full the preview
+ * is skipped. Previews are stored next to their blob, so identical files share one.
+ * <p>
+ * Metrics: {@code executor.*{name="attachment-thumbnails"}} and {@code attachment.thumbnails{result}}.
+ */
+@Service
+public class ThumbnailService {
+    static final String NAME = "attachment-thumbnails";
+
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailService.class);
+
+    private final AttachmentStorageService storage;
+    private final MeterRegistry registry;
+    private final ThreadPoolExecutor pool;
+    private final ExecutorService executor;
+    private final int maxPixels;
+
+    public ThumbnailService(AttachmentStorageService storage,
+                            MeterRegistry registry,
+                            @Value("${app.attachments.thumbnails.threads:2}") int threads,
+                            @Value("${app.attachments.thumbnails.queue-capacity:200}") int queueCapacity,
+                            @Value("${app.attachments.thumbnails.max-pixels:256}") int maxPixels) {
+        this.storage = storage;
+        this.registry = registry;
+        this.maxPixels = maxPixels;
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name(NAME + "-", 0).daemon().factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor = ExecutorServiceMetrics.monitor(registry, pool, NAME, List.of());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    public static boolean supports(String contentType) {
+        return contentType != null && (contentType.equals("application/pdf") || contentType.startsWith("image/"));
+    }
+
+    /** Queues a preview of the attachment's blob once the current transaction commits (immediately without one). */
+    public void generateAfterCommit(InvoiceAttachment att) {
+        String storageKey = att.getStorageKey();
+        String encoding = att.getContentEncoding();
+        String contentType = att.getContentType();
+        if (!supports(contentType)) return;
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            submit(storageKey, encoding, contentType);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                submit(storageKey, encoding, contentType);
+            }
+        });
+    }
+
+    private void submit(String storageKey, String encoding, String contentType) {
+        try {
+            executor.execute(() -> generate(storageKey, encoding, contentType));
+        } catch (RejectedExecutionException busy) {
+            count("rejected");
+        }
+    }
+
+    void generate(String storageKey, String encoding, String contentType) {
+        Path thumbnail = storage.thumbnail(storageKey);
+        if (Files.exists(thumbnail)) return;
+        try (InputStream source = storage.open(storageKey, encoding)) {
+            BufferedImage image = contentType.equals("application/pdf") ? firstPage(source) : readImage(source);
+            if (image == null) {
+                count("unsupported");
+                return;
+            }
+            storage.saveThumbnail(storageKey, out -> ImageIO.write(scale(image), "png", out));
+            count("created");
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not create a preview for blob {}: {}", storageKey, e.toString());
+            count("failed");
+        }
+    }
+
+    private BufferedImage firstPage(InputStream pdf) throws IOException {
+        try (PDDocument doc = PDDocument.load(pdf, MemoryUsageSetting.setupTempFileOnly())) {
+            if (doc.getNumberOfPages() == 0) return null;
+            float width = doc.getPage(0).getMediaBox().getWidth();
+            float height = doc.getPage(0).getMediaBox().getHeight();
+            float scale = Math.min(1f, maxPixels / Math.max(width, height));
+            return new PDFRenderer(doc).renderImage(0, scale, ImageType.RGB);
+        }
+    }
+
+    /** Decodes only every n-th pixel of large images, so a 50-megapixel scan never lands in memory whole. */
+    private BufferedImage readImage(InputStream file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int step = Math.max(1, Math.max(reader.getWidth(0), reader.getHeight(0)) / (maxPixels * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage scale(BufferedImage image) {
+        double factor = Math.min(1.0, (double) maxPixels / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private void count(String result) {
+        registry.counter("attachment.thumbnails", "result", result).increment();
+    }
+}
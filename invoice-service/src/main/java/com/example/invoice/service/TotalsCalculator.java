@@ -0,0 +1,94 @@
+package com.example.invoice.service;
+
+import com.example.invoice.common.MoneyUtils;
+import com.example.invoice.model.InvoiceItem;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Computes line totals and invoice totals in one pass, in {@code long} minor units (cents).
+ * Rounding matches the historical {@link MoneyUtils} chain exactly: quantity and price are rounded to
+ * 2 places, the tax rate is applied as a 2-place fraction (so 7.25% taxes at 7%), and every product is
+ * rounded HALF_UP to cents. A missing quantity or price counts as zero, a missing tax rate fails with
+ * {@link NullPointerException}. Any overflow falls back to the {@code BigDecimal} implementation.
+ */
+public final class TotalsCalculator {
+    private TotalsCalculator() {}
+
+    public record Totals(BigDecimal subTotal, BigDecimal taxTotal, BigDecimal total) {}
+
+    /**
+     * Sets {@code lineTotal} on every item and returns the invoice totals.
+     */
+    public static Totals computeLines(List<InvoiceItem> items) {
+        try {
+            return computeMinorUnits(items);
+        } catch (ArithmeticException overflow) {
+            return computeExact(items);
+        }
+    }
+
+    private static Totals computeMinorUnits(List<InvoiceItem> items) {
+        int n = items.size();
+        long[] lineTotals = new long[n];
+        long sub = 0;
+        long tax = 0;
+        for (int k = 0; k < n; k++) {
+            InvoiceItem item = items.get(k);
+            long line = roundCents(Math.multiplyExact(cents(item.getQuantity()), cents(item.getUnitPrice())));
+            long lineTax = roundCents(Math.multiplyExact(line, percent(item.getTaxRate())));
+            lineTotals[k] = Math.addExact(line, lineTax);
+            sub = Math.addExact(sub, line);
+            tax = Math.addExact(tax, lineTax);
+        }
+        long total = Math.addExact(sub, tax);
+        // only write back once the whole invoice is known not to overflow
+        for (int k = 0; k < n; k++) {
+            items.get(k).setLineTotal(BigDecimal.valueOf(lineTotals[k], 2));
+        }
+        return new Totals(BigDecimal.valueOf(sub, 2), BigDecimal.valueOf(tax, 2), BigDecimal.valueOf(total, 2));
+    }
+
+    /** The original BigDecimal chain, kept as the overflow path and as the reference for rounding. */
+    static Totals computeExact(List<InvoiceItem> items) {
+        BigDecimal sub = MoneyUtils.scale(null);
+        BigDecimal tax = MoneyUtils.scale(null);
+        BigDecimal total = MoneyUtils.scale(null);
+        for (InvoiceItem item : items) {
+            BigDecimal line = MoneyUtils.mul(item.getQuantity(), item.getUnitPrice());
+            BigDecimal lineTax = MoneyUtils.mul(line, rateFraction(item.getTaxRate()));
+            BigDecimal lineTotal = MoneyUtils.add(line, lineTax);
+            item.setLineTotal(lineTotal);
+            sub = MoneyUtils.add(sub, line);
+            tax = MoneyUtils.add(tax, lineTax);
+            total = MoneyUtils.add(total, lineTotal);
+        }
+        return new Totals(sub, tax, total);
+    }
+
+    /** Value rounded HALF_UP to 2 places, as an unscaled long; null counts as zero. */
+    private static long cents(BigDecimal value) {
+        if (value == null) return 0;
+        return value.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /** A percentage rounded to the 2-place fraction MoneyUtils applies: 7.25 becomes 7 (0.07). */
+    private static long percent(BigDecimal rate) {
+        return Objects.requireNonNull(rate, "taxRate").setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    private static BigDecimal rateFraction(BigDecimal rate) {
+        return Objects.requireNonNull(rate, "taxRate").movePointLeft(2);
+    }
+
+    /** Divides a 4-place product by 100, rounding HALF_UP (away from zero on ties) like BigDecimal. */
+    private static long roundCents(long scaled4) {
+        long quotient = scaled4 / 100;
+        long remainder = Math.abs(scaled4 % 100);
+        if (remainder >= 50) quotient += Long.signum(scaled4);
+        return quotient;
+    }
+}
@@ -0,0 +1,30 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.Statement;
+
+/**
+ * Removes the BIGSERIAL defaults left behind by {@link V5__pooled_id_sequences}, so a raw insert without an
+ * id fails instead of taking one from the old serial sequence, which the pooled sequences would later hand
+ * out again. A Java migration because the column differs: PostgreSQL has a nextval default and an owned
+ * sequence, H2 an identity column.
+ */
+public class V18__drop_serial_id_defaults extends BaseJavaMigration {
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        boolean postgres = "PostgreSQL".equals(context.getConnection().getMetaData().getDatabaseProductName());
+        try (Statement statement = context.getConnection().createStatement()) {
+            for (String table : V5__pooled_id_sequences.TABLES) {
+                if (postgres) {
+                    statement.execute("ALTER TABLE " + table + " ALTER COLUMN id DROP DEFAULT");
+                    statement.execute("DROP SEQUENCE IF EXISTS " + table + "_id_seq");
+                } else {
+                    statement.execute("ALTER TABLE " + table + " ALTER COLUMN id DROP IDENTITY");
+                }
+            }
+        }
+    }
+}
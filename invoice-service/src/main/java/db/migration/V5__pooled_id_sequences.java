@@ -0,0 +1,36 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Moves primary keys from IDENTITY to pooled sequences so Hibernate can batch inserts.
+ * A Java migration because each sequence must start above the table's current max id,
+ * and neither H2 nor PostgreSQL accept a subquery in START WITH.
+ * Hibernate's pooled optimizer treats each value as the top of a block of
+ * {@value #ALLOCATION_SIZE} ids, hence the first value is max(id) + ALLOCATION_SIZE.
+ */
+public class V5__pooled_id_sequences extends BaseJavaMigration {
+    static final int ALLOCATION_SIZE = 50;
+    static final List<String> TABLES = List.of(
+            "customer", "invoice", "invoice_item", "payment", "invoice_attachment");
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        try (Statement statement = context.getConnection().createStatement()) {
+            for (String table : TABLES) {
+                long maxId;
+                try (ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(id), 0) FROM " + table)) {
+                    rs.next();
+                    maxId = rs.getLong(1);
+                }
+                statement.execute("CREATE SEQUENCE " + table + "_seq START WITH " + (maxId + ALLOCATION_SIZE)
+                        + " INCREMENT BY " + ALLOCATION_SIZE);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Durable counters for invoice numbering, one row per series. The default series is seeded
+ * above the highest numeric invoice number already issued by the old in-memory counter,
+ * which is why this is a Java migration (portable digit check across H2 and PostgreSQL).
+ */
+public class V6__invoice_number_series extends BaseJavaMigration {
+    static final String DEFAULT_SERIES = "DEFAULT";
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        try (Statement statement = context.getConnection().createStatement()) {
+            statement.execute("""
+                    CREATE TABLE invoice_number_series (
+                        series_key VARCHAR(100) PRIMARY KEY,
+                        next_value BIGINT NOT NULL
+                    )""");
+            long max = 0;
+            try (ResultSet rs = statement.executeQuery(
+                    "SELECT invoice_number FROM invoice WHERE invoice_number IS NOT NULL")) {
+                while (rs.next()) {
+                    String number = rs.getString(1);
+                    if (number.chars().allMatch(Character::isDigit) && number.length() <= 18) {
+                        max = Math.max(max, Long.parseLong(number));
+                    }
+                }
+            }
+            try (PreparedStatement insert = context.getConnection().prepareStatement(
+                    "INSERT INTO invoice_number_series (series_key, next_value) VALUES (?, ?)")) {
+                insert.setString(1, DEFAULT_SERIES);
+                insert.setLong(2, max + 1);
+                insert.executeUpdate();
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+-- Resumable chunked uploads: a session per upload and a row per chunk received so far
+CREATE TABLE IF NOT EXISTS attachment_upload (
+    id VARCHAR(36) PRIMARY KEY,
+    invoice_id BIGINT NOT NULL,
+    filename VARCHAR(255) NOT NULL,
+    content_type VARCHAR(150),
+    size BIGINT NOT NULL,
+    chunk_size INTEGER NOT NULL,
+    sha256 VARCHAR(64),
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT fk_attachment_upload_invoice FOREIGN KEY (invoice_id) REFERENCES invoice(id) ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS attachment_upload_chunk (
+    upload_id VARCHAR(36) NOT NULL,
+    chunk_index INTEGER NOT NULL,
+    PRIMARY KEY (upload_id, chunk_index),
+    CONSTRAINT fk_attachment_upload_chunk_upload FOREIGN KEY (upload_id) REFERENCES attachment_upload(id) ON DELETE CASCADE
+);
@@ -0,0 +1,2 @@
+-- Attachments may be stored gzipped at rest; NULL means stored as uploaded
+ALTER TABLE invoice_attachment ADD COLUMN IF NOT EXISTS content_encoding VARCHAR(20);
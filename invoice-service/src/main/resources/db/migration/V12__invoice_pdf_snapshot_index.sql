@@ -0,0 +1,2 @@
+-- The storage reconciler looks snapshots up by hash to find the ones no invoice points at
+CREATE INDEX IF NOT EXISTS idx_invoice_pdf_snapshot_sha256 ON invoice(pdf_snapshot_sha256);
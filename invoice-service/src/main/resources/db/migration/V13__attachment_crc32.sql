@@ -0,0 +1,2 @@
+-- CRC-32 of the original bytes, recorded at upload so ZIP downloads can store entries without a second read
+ALTER TABLE invoice_attachment ADD COLUMN IF NOT EXISTS crc32 BIGINT;
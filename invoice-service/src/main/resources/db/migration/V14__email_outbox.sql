@@ -0,0 +1,19 @@
+-- Emails are queued in the same transaction as the invoice change and delivered by a background dispatcher
+CREATE SEQUENCE IF NOT EXISTS email_outbox_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS email_outbox (
+    id BIGINT PRIMARY KEY,
+    invoice_id BIGINT REFERENCES invoice(id) ON DELETE CASCADE,
+    principal_name VARCHAR(255) NOT NULL,
+    recipient VARCHAR(320) NOT NULL,
+    subject VARCHAR(998) NOT NULL,
+    body TEXT NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    attempts INTEGER NOT NULL DEFAULT 0,
+    next_attempt_at TIMESTAMP NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    sent_at TIMESTAMP,
+    last_error VARCHAR(1000)
+);
+
+CREATE INDEX IF NOT EXISTS idx_email_outbox_due ON email_outbox(status, next_attempt_at);
@@ -0,0 +1,5 @@
+-- Bulk sends group their emails for progress reporting; invoice emails carry the PDF
+ALTER TABLE email_outbox ADD COLUMN IF NOT EXISTS batch_id VARCHAR(36);
+ALTER TABLE email_outbox ADD COLUMN IF NOT EXISTS attach_pdf BOOLEAN NOT NULL DEFAULT FALSE;
+
+CREATE INDEX IF NOT EXISTS idx_email_outbox_batch ON email_outbox(batch_id);
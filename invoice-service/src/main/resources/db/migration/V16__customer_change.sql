@@ -0,0 +1,8 @@
+-- Customer updates and deletes, written in the same transaction, so other nodes can evict their cached copies
+CREATE TABLE IF NOT EXISTS customer_change (
+    id BIGSERIAL PRIMARY KEY,
+    customer_id BIGINT NOT NULL,
+    changed_at TIMESTAMP NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_customer_change_changed_at ON customer_change(changed_at);
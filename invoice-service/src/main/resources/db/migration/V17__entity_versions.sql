@@ -0,0 +1,3 @@
+-- Optimistic locking and strong ETags for invoices and customers; existing rows start at version 0
+ALTER TABLE invoice ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE customer ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,3 @@
+-- Keyset pagination walks invoices by (issue_date, id) and customers by (created_at, id)
+CREATE INDEX IF NOT EXISTS idx_invoice_issue_date_id ON invoice(issue_date, id);
+CREATE INDEX IF NOT EXISTS idx_customer_created_at_id ON customer(created_at, id);
@@ -0,0 +1,4 @@
+-- Invoice search filters on status without a customer (dashboards, overdue sweeps);
+-- idx_invoice_customer_status_date already covers customer-scoped searches.
+CREATE INDEX IF NOT EXISTS idx_invoice_status_issue_date ON invoice(status, issue_date);
+CREATE INDEX IF NOT EXISTS idx_invoice_status_due_date ON invoice(status, due_date);
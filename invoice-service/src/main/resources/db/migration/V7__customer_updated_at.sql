@@ -0,0 +1,2 @@
+-- Rendered invoice PDFs include customer details, so their cache version also tracks customer edits
+ALTER TABLE customer ADD COLUMN IF NOT EXISTS updated_at TIMESTAMP;
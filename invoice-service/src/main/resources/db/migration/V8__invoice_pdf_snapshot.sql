@@ -0,0 +1,2 @@
+-- Finalized invoices keep the PDF rendered at finalize in content-addressed storage
+ALTER TABLE invoice ADD COLUMN IF NOT EXISTS pdf_snapshot_sha256 VARCHAR(64);
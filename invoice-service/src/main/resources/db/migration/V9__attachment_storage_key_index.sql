@@ -0,0 +1,2 @@
+-- Attachments share content-addressed blobs; deletes count the remaining references by storage key
+CREATE INDEX IF NOT EXISTS idx_invoice_attachment_storage_key ON invoice_attachment(storage_key);
@@ -0,0 +1,36 @@
+package com.example.invoice.common;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+class AcceptEncodingTest {
+
+    @Test
+    void shouldAcceptListedGzip() {
+        assertThat(AcceptEncoding.acceptsGzip("gzip")).isTrue();
+        assertThat(AcceptEncoding.acceptsGzip("br, GZIP;q=0.5, deflate")).isTrue();
+        assertThat(AcceptEncoding.acceptsGzip("x-gzip")).isTrue();
+    }
+
+    @Test
+    void shouldRefuseGzipWithZeroWeight() {
+        assertThat(AcceptEncoding.acceptsGzip("gzip;q=0")).isFalse();
+        assertThat(AcceptEncoding.acceptsGzip("gzip; q=0.000, identity")).isFalse();
+        assertThat(AcceptEncoding.acceptsGzip("*, gzip;q=0")).isFalse();
+    }
+
+    @Test
+    void shouldFallBackToWildcard() {
+        assertThat(AcceptEncoding.acceptsGzip("*")).isTrue();
+        assertThat(AcceptEncoding.acceptsGzip("br, *;q=0")).isFalse();
+    }
+
+    @Test
+    void shouldRefuseWhenAbsentOrUnrelated() {
+        assertThat(AcceptEncoding.acceptsGzip(null)).isFalse();
+        assertThat(AcceptEncoding.acceptsGzip("")).isFalse();
+        assertThat(AcceptEncoding.acceptsGzip("identity, br")).isFalse();
+        assertThat(AcceptEncoding.acceptsGzip("gzip-ish")).isFalse();
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.invoice.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.*;
+
+class CursorPageTest {
+
+    @Test
+    void shouldRoundTripCursor() {
+        KeysetCursor<LocalDate> cursor = new KeysetCursor<>(LocalDate.of(2025, 1, 31), 42L);
+
+        KeysetCursor<LocalDate> decoded = KeysetCursor.decode(cursor.encode(), LocalDate::parse);
+
+        assertThat(decoded).isEqualTo(cursor);
+    }
+
+    @Test
+    void shouldRoundTripKeyContainingSeparator() {
+        KeysetCursor<String> cursor = new KeysetCursor<>("a|b", 7L);
+
+        assertThat(KeysetCursor.decode(cursor.encode(), Function.identity())).isEqualTo(cursor);
+    }
+
+    @Test
+    void shouldRejectMalformedCursor() {
+        assertThatThrownBy(() -> KeysetCursor.decode("not a cursor", Function.identity()))
+                .isInstanceOf(KeysetCursor.MalformedCursorException.class);
+        assertThatThrownBy(() -> KeysetCursor.decode(new KeysetCursor<>("x", 1L).encode().substring(2), Function.identity()))
+                .isInstanceOf(KeysetCursor.MalformedCursorException.class);
+    }
+
+    @Test
+    void shouldRejectCursorWhoseKeyDoesNotParse() {
+        String token = new KeysetCursor<>("2025-13-45", 1L).encode();
+
+        assertThatThrownBy(() -> KeysetCursor.decode(token, LocalDate::parse))
+                .isInstanceOf(KeysetCursor.MalformedCursorException.class);
+    }
+
+    @Test
+    void shouldReturnLastPageWithoutCursor() {
+        CursorPage<Integer> page = CursorPage.of(List.of(1, 2), 3, n -> new KeysetCursor<>("k", n));
+
+        assertThat(page.content()).containsExactly(1, 2);
+        assertThat(page.hasNext()).isFalse();
+        assertThat(page.nextCursor()).isNull();
+    }
+
+    @Test
+    void shouldTrimProbeRowAndPointCursorAtLastReturnedRow() {
+        CursorPage<Integer> page = CursorPage.of(List.of(1, 2, 3, 4), 3, n -> new KeysetCursor<>("k", n));
+
+        assertThat(page.content()).containsExactly(1, 2, 3);
+        assertThat(page.hasNext()).isTrue();
+        assertThat(KeysetCursor.decode(page.nextCursor(), Function.identity()).id()).isEqualTo(3L);
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.invoice.common;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.EOFException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.*;
+
+class FileTransferTest {
+
+    @TempDir Path dir;
+
+    @Test
+    void shouldSendTheRequestedRange() throws Exception {
+        Path file = Files.writeString(dir.resolve("blob"), "0123456789");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        FileTransfer.send(new MockHttpServletRequest(), response, file, 2, 6);
+
+        assertThat(response.getContentAsString(StandardCharsets.UTF_8)).isEqualTo("2345");
+    }
+
+    @Test
+    void shouldHandOffToSendfileWhenSupported() throws Exception {
+        Path file = Files.writeString(dir.resolve("blob"), "0123456789");
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute("org.apache.tomcat.sendfile.support", true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        FileTransfer.send(request, response, file, 2, 6);
+
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.start")).isEqualTo(2L);
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.end")).isEqualTo(6L);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void shouldFailInsteadOfSpinningWhenTheFileIsShort() throws Exception {
+        Path file = Files.writeString(dir.resolve("blob"), "0123");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertThatThrownBy(() -> FileTransfer.send(new MockHttpServletRequest(), response, file, 0, 10))
+                .isInstanceOf(EOFException.class);
+        assertThat(response.getContentAsString(StandardCharsets.UTF_8)).isEqualTo("0123");
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.invoice.controller;
+
+import com.example.invoice.model.Customer;
+import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceAttachment;
+import com.example.invoice.repository.CustomerRepository;
+import com.example.invoice.repository.InvoiceRepository;
+import com.example.invoice.service.AttachmentService;
+import com.example.invoice.service.AttachmentStorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Attachment downloads through the full MVC stack: ranges, conditional requests and gzip pass-through.
+ * Text is stored gzipped ({@code app.uploads.compress-types=text/*}), binary content plain. Uses the local
+ * profile, which has the OAuth client registration the full context needs.
+ */
+@SpringBootTest(properties = "app.uploads.compress-types=text/*")
+@AutoConfigureMockMvc
+@ActiveProfiles("local")
+class AttachmentControllerTest {
+    private static final byte[] BINARY = new byte[1000];
+    private static final String TEXT = "a line of an invoice export\n".repeat(200);
+
+    static {
+        for (int n = 0; n < BINARY.length; n++) BINARY[n] = (byte) n;
+    }
+
+    @TempDir static Path uploads;
+
+    @DynamicPropertySource
+    static void uploadsDir(DynamicPropertyRegistry registry) {
+        registry.add("app.uploads.dir", uploads::toString);
+    }
+
+    @Autowired MockMvc mvc;
+    @Autowired AttachmentService attachmentService;
+    @Autowired CustomerRepository customerRepository;
+    @Autowired InvoiceRepository invoiceRepository;
+
+    private Customer customer;
+    private Invoice invoice;
+    private InvoiceAttachment binary;
+    private InvoiceAttachment text;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        customer = new Customer();
+        customer.setName("Download Co");
+        customer.setEmail("billing@download.test");
+        customer = customerRepository.save(customer);
+        invoice = new Invoice();
+        invoice.setCustomer(customer);
+        invoice.setInvoiceNumber("DL-1");
+        invoice = invoiceRepository.save(invoice);
+        binary = attachmentService.upload(invoice.getId(),
+                new MockMultipartFile("file", "scan.bin", "application/octet-stream", BINARY));
+        text = attachmentService.upload(invoice.getId(),
+                new MockMultipartFile("file", "export.txt", "text/plain", TEXT.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        attachmentService.delete(binary.getId());
+        attachmentService.delete(text.getId());
+        invoiceRepository.deleteById(invoice.getId());
+        customerRepository.deleteById(customer.getId());
+    }
+
+    @Test
+    void wholeFileCarriesValidatorsAndAcceptsRanges() throws Exception {
+        MockHttpServletResponse response = download(binary, 200);
+
+        assertThat(response.getContentAsByteArray()).isEqualTo(BINARY);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo(etag(binary));
+        assertThat(response.getHeader(HttpHeaders.LAST_MODIFIED)).isEqualTo(httpDate(binary));
+        assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(response.getContentLengthLong()).isEqualTo(BINARY.length);
+    }
+
+    @Test
+    void singleRangeIsPartialContent() throws Exception {
+        MockHttpServletResponse response = download(binary, 206, HttpHeaders.RANGE, "bytes=10-19");
+
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 10-19/1000");
+        assertThat(response.getContentLengthLong()).isEqualTo(10);
+        assertThat(response.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(BINARY, 10, 20));
+    }
+
+    @Test
+    void suffixRangeResumesFromTheEnd() throws Exception {
+        MockHttpServletResponse response = download(binary, 206, HttpHeaders.RANGE, "bytes=-100");
+
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 900-999/1000");
+        assertThat(response.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(BINARY, 900, 1000));
+    }
+
+    @Test
+    void rangePastTheEndIsNotSatisfiable() throws Exception {
+        MockHttpServletResponse response = download(binary, 416, HttpHeaders.RANGE, "bytes=1000-");
+
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */1000");
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void severalRangesGetTheWholeFile() throws Exception {
+        MockHttpServletResponse response = download(binary, 200, HttpHeaders.RANGE, "bytes=0-9,20-29");
+
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isNull();
+        assertThat(response.getContentAsByteArray()).isEqualTo(BINARY);
+    }
+
+    @Test
+    void ifRangeWithTheCurrentValidatorKeepsTheRange() throws Exception {
+        download(binary, 206, HttpHeaders.RANGE, "bytes=0-9", HttpHeaders.IF_RANGE, etag(binary));
+        download(binary, 206, HttpHeaders.RANGE, "bytes=0-9", HttpHeaders.IF_RANGE, httpDate(binary));
+    }
+
+    @Test
+    void ifRangeWithAStaleValidatorGetsTheWholeFile() throws Exception {
+        MockHttpServletResponse byEtag = download(binary, 200, HttpHeaders.RANGE, "bytes=0-9",
+                HttpHeaders.IF_RANGE, "\"" + "0".repeat(64) + "\"");
+        MockHttpServletResponse byDate = download(binary, 200, HttpHeaders.RANGE, "bytes=0-9",
+                HttpHeaders.IF_RANGE, "Mon, 01 Jan 2001 00:00:00 GMT");
+
+        assertThat(byEtag.getContentAsByteArray()).isEqualTo(BINARY);
+        assertThat(byDate.getContentAsByteArray()).isEqualTo(BINARY);
+    }
+
+    @Test
+    void matchingIfNoneMatchIsNotModified() throws Exception {
+        MockHttpServletResponse response = download(binary, 304, HttpHeaders.IF_NONE_MATCH, etag(binary));
+
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void gzippedBlobGoesOutAsStoredToClientsThatAcceptGzip() throws Exception {
+        assertThat(text.getContentEncoding()).isEqualTo(AttachmentStorageService.GZIP);
+
+        MockHttpServletResponse response = download(text, 200, HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(response.getHeaders(HttpHeaders.VARY)).contains(HttpHeaders.ACCEPT_ENCODING);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"" + text.getStorageKey() + "-gzip\"");
+        assertThat(response.getContentLengthLong()).isLessThan(TEXT.length());
+        assertThat(gunzip(response.getContentAsByteArray())).isEqualTo(TEXT);
+    }
+
+    @Test
+    void gzippedBlobIsDecodedForOtherClients() throws Exception {
+        MockHttpServletResponse plain = download(text, 200, HttpHeaders.ACCEPT_ENCODING, "gzip;q=0");
+
+        assertThat(plain.getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+        assertThat(plain.getHeaders(HttpHeaders.VARY)).contains(HttpHeaders.ACCEPT_ENCODING);
+        assertThat(plain.getHeader(HttpHeaders.ETAG)).isEqualTo(etag(text));
+        assertThat(plain.getContentAsString(StandardCharsets.UTF_8)).isEqualTo(TEXT);
+    }
+
+    @Test
+    void rangesOfAGzippedBlobAddressTheOriginalBytes() throws Exception {
+        MockHttpServletResponse response = download(text, 206, HttpHeaders.RANGE, "bytes=28-55",
+                HttpHeaders.ACCEPT_ENCODING, "gzip");
+
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 28-55/" + TEXT.length());
+        assertThat(response.getContentAsString(StandardCharsets.UTF_8)).isEqualTo("a line of an invoice export\n");
+    }
+
+    private MockHttpServletResponse download(InvoiceAttachment att, int status, String... headers) throws Exception {
+        MockHttpServletRequestBuilder request = get("/api/attachments/{id}", att.getId());
+        for (int n = 0; n < headers.length; n += 2) request.header(headers[n], headers[n + 1]);
+        return mvc.perform(request).andExpect(status().is(status)).andReturn().getResponse();
+    }
+
+    private static String etag(InvoiceAttachment att) {
+        return "\"" + att.getStorageKey() + "\"";
+    }
+
+    private static String httpDate(InvoiceAttachment att) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(att.getCreatedAt().atZone(ZoneOffset.UTC));
+    }
+
+    private static String gunzip(byte[] body) throws Exception {
+        try (var in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
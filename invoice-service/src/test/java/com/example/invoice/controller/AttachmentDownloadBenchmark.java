@@ -0,0 +1,99 @@
+package com.example.invoice.controller;
+
+import com.example.invoice.model.Customer;
+import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceAttachment;
+import com.example.invoice.repository.CustomerRepository;
+import com.example.invoice.repository.InvoiceRepository;
+import com.example.invoice.service.AttachmentService;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Download throughput for a maximum-size attachment over a real connector, whole-file and as 1 MB
+ * ranges. Uses the local profile, which has the OAuth client registration the full context needs.
+ * Run with {@code ./gradlew benchmark}; it is excluded from the regular test task.
+ */
+@Tag("benchmark")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("local")
+class AttachmentDownloadBenchmark {
+    private static final int SIZE = 10 * 1024 * 1024;
+    private static final int CHUNK = 1024 * 1024;
+    private static final int ROUNDS = 100;
+
+    @TempDir static Path uploads;
+
+    @DynamicPropertySource
+    static void uploadsDir(DynamicPropertyRegistry registry) {
+        registry.add("app.uploads.dir", uploads::toString);
+    }
+
+    @LocalServerPort int port;
+    @Autowired AttachmentService attachmentService;
+    @Autowired CustomerRepository customerRepository;
+    @Autowired InvoiceRepository invoiceRepository;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @Test
+    void downloadLargeAttachment() throws Exception {
+        Customer customer = new Customer();
+        customer.setName("Bench");
+        customer.setEmail("bench@example.test");
+        customerRepository.save(customer);
+        Invoice invoice = new Invoice();
+        invoice.setCustomer(customer);
+        invoiceRepository.save(invoice);
+        byte[] content = new byte[SIZE];
+        new Random(42).nextBytes(content);
+        InvoiceAttachment att = attachmentService.upload(invoice.getId(),
+                new MockMultipartFile("file", "scan.pdf", "application/pdf", content));
+        URI uri = URI.create("http://localhost:" + port + "/api/attachments/" + att.getId());
+
+        for (int n = 0; n < ROUNDS / 10; n++) fetch(uri, null);  // warm up
+        long start = System.nanoTime();
+        for (int n = 0; n < ROUNDS; n++) assertThat(fetch(uri, null)).isEqualTo(200);
+        report("whole file", (long) SIZE * ROUNDS, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int n = 0; n < ROUNDS; n++) {
+            for (int offset = 0; offset < SIZE; offset += CHUNK) {
+                assertThat(fetch(uri, "bytes=" + offset + "-" + (offset + CHUNK - 1))).isEqualTo(206);
+            }
+        }
+        report("1 MB ranges", (long) SIZE * ROUNDS, System.nanoTime() - start);
+
+        attachmentService.delete(att.getId());
+        invoiceRepository.delete(invoice);
+        customerRepository.delete(customer);
+    }
+
+    private int fetch(URI uri, String range) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri);
+        if (range != null) request.header("Range", range);
+        return client.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private static void report(String mode, long bytes, long nanos) {
+        System.out.printf("attachment download (%s): %d MB in %.1f ms, %.0f MB/s%n",
+                mode, bytes >> 20, nanos / 1e6, (bytes >> 20) / (nanos / 1e9));
+    }
+}
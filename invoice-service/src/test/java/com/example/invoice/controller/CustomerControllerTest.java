@@ -0,0 +1,141 @@
+package com.example.invoice.controller;
+
+import com.example.invoice.common.KeysetCursor;
+import com.example.invoice.model.Customer;
+import com.example.invoice.repository.CustomerRepository;
+import com.example.invoice.service.CustomerService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Cursor validation, and conditional reads and writes of a customer. A lost update is simulated on the
+ * service, since a real one needs a write to land between the version check and the flush. Uses the local
+ * profile, which has the OAuth client registration the full context needs.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("local")
+class CustomerControllerTest {
+
+    @Autowired MockMvc mvc;
+    @Autowired CustomerRepository customerRepository;
+    @SpyBean CustomerService customers;
+
+    private Customer customer;
+
+    @BeforeEach
+    void setUp() {
+        customer = new Customer();
+        customer.setName("Conditional Co");
+        customer.setEmail("billing@conditional.test");
+        customer = customerRepository.save(customer);
+    }
+
+    @AfterEach
+    void tearDown() {
+        customerRepository.deleteById(customer.getId());
+    }
+
+    @Test
+    void malformedCursorIsBadRequest() throws Exception {
+        String badDate = new KeysetCursor<>("yesterday", customer.getId()).encode();
+
+        mvc.perform(get("/api/customers").param("limit", "10").param("after", badDate))
+                .andExpect(status().isBadRequest());
+        mvc.perform(get("/api/customers").param("limit", "10").param("after", "not a cursor"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void getIsTaggedWithTheVersion() throws Exception {
+        mvc.perform(get("/api/customers/{id}", customer.getId()))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, etag(customer.getVersion())))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache, private"))
+                .andExpect(jsonPath("$.name").value("Conditional Co"));
+    }
+
+    @Test
+    void matchingIfNoneMatchIsNotModified() throws Exception {
+        mvc.perform(get("/api/customers/{id}", customer.getId())
+                        .header(HttpHeaders.IF_NONE_MATCH, etag(customer.getVersion())))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    void bodyAndEtagAgreeWhenAWriteLandsBetweenTheTwoReads() throws Exception {
+        long checked = customer.getVersion();
+        update(null, "Renamed Ltd").andExpect(status().isOk());
+        doReturn(checked).when(customers).version(customer.getId());
+
+        mvc.perform(get("/api/customers/{id}", customer.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value("Renamed Ltd"))
+                .andExpect(header().string(HttpHeaders.ETAG, etag(checked + 1)));
+    }
+
+    @Test
+    void putWithTheCurrentEtagReturnsTheNextOne() throws Exception {
+        update(etag(customer.getVersion()), "Renamed Ltd")
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, etag(customer.getVersion() + 1)));
+    }
+
+    @Test
+    void putWithAStaleEtagIsPreconditionFailed() throws Exception {
+        update(etag(customer.getVersion() + 5), "Renamed Ltd").andExpect(status().isPreconditionFailed());
+
+        assertThat(customerRepository.findById(customer.getId()).orElseThrow().getName()).isEqualTo("Conditional Co");
+    }
+
+    @Test
+    void lostUpdateIsConflictWithoutIfMatch() throws Exception {
+        doThrow(new ObjectOptimisticLockingFailureException(Customer.class, customer.getId()))
+                .when(customers).update(eq(customer.getId()), any(), any());
+
+        update(null, "Renamed Ltd").andExpect(status().isConflict());
+    }
+
+    @Test
+    void lostUpdateIsPreconditionFailedWithIfMatch() throws Exception {
+        doThrow(new ObjectOptimisticLockingFailureException(Customer.class, customer.getId()))
+                .when(customers).update(eq(customer.getId()), any(), anyLong());
+
+        update(etag(customer.getVersion()), "Renamed Ltd").andExpect(status().isPreconditionFailed());
+    }
+
+    private ResultActions update(String ifMatch, String name) throws Exception {
+        MockHttpServletRequestBuilder request = put("/api/customers/{id}", customer.getId())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"name\":\"" + name + "\",\"email\":\"billing@conditional.test\"}");
+        if (ifMatch != null) request.header(HttpHeaders.IF_MATCH, ifMatch);
+        return mvc.perform(request);
+    }
+
+    private static String etag(long version) {
+        return "\"" + version + "\"";
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.invoice.controller;
+
+import com.example.invoice.model.Customer;
+import com.example.invoice.model.Invoice;
+import com.example.invoice.model.Payment;
+import com.example.invoice.repository.CustomerRepository;
+import com.example.invoice.repository.InvoiceRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Streams the ledger exports through the full MVC stack. Uses the local profile, which has the OAuth
+ * client registration the full context needs.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("local")
+class ExportControllerTest {
+
+    @Autowired MockMvc mvc;
+    @Autowired CustomerRepository customerRepository;
+    @Autowired InvoiceRepository invoiceRepository;
+
+    private Customer customer;
+    private final List<Invoice> invoices = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        customer = new Customer();
+        customer.setName("Export, \"Quoted\" Ltd");
+        customer.setEmail("billing@export.test");
+        customerRepository.save(customer);
+        for (int n = 0; n < 3; n++) {
+            Invoice invoice = new Invoice();
+            invoice.setCustomer(customer);
+            invoice.setInvoiceNumber("EXP-" + n);
+            Payment payment = new Payment();
+            payment.setInvoice(invoice);
+            payment.setAmount(new BigDecimal("5.00"));
+            payment.setReference("REF-EXP-" + n);
+            invoice.getPayments().add(payment);
+            invoices.add(invoiceRepository.save(invoice));
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        invoiceRepository.deleteAllInBatch(invoices);
+        customerRepository.delete(customer);
+    }
+
+    @Test
+    void invoicesAsCsv() throws Exception {
+        MockHttpServletResponse response = export(get("/api/invoices/export"));
+
+        assertThat(response.getContentType()).startsWith("text/csv");
+        assertThat(response.getHeader(HttpHeaders.CONTENT_DISPOSITION)).isEqualTo("attachment; filename=invoices.csv");
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+        assertThat(response.getHeaders(HttpHeaders.VARY)).contains(HttpHeaders.ACCEPT_ENCODING);
+        List<String> lines = response.getContentAsString(StandardCharsets.UTF_8).lines().toList();
+        assertThat(lines.get(0)).startsWith("id,invoice_number,customer_id,customer_name,");
+        assertThat(lines).filteredOn(line -> line.contains(",EXP-")).hasSize(3)
+                .allMatch(line -> line.contains(",\"Export, \"\"Quoted\"\" Ltd\","));
+    }
+
+    @Test
+    void exportRunsUnderItsOwnLongTimeout() throws Exception {
+        var export = mvc.perform(get("/api/invoices/export")).andExpect(request().asyncStarted()).andReturn();
+
+        assertThat(export.getRequest().getAsyncContext().getTimeout()).isEqualTo(Duration.ofMinutes(30).toMillis());
+        mvc.perform(asyncDispatch(export)).andExpect(status().isOk());
+    }
+
+    @Test
+    void paymentsAsNdjson() throws Exception {
+        MockHttpServletResponse response = export(get("/api/payments/export").param("format", "ndjson"));
+
+        assertThat(response.getContentType()).startsWith("application/x-ndjson");
+        List<String> lines = response.getContentAsString(StandardCharsets.UTF_8).lines()
+                .filter(line -> line.contains("REF-EXP-")).toList();
+        assertThat(lines).hasSize(3).allMatch(line -> line.startsWith("{") && line.endsWith("}"));
+    }
+
+    @Test
+    void gzipWhenAccepted() throws Exception {
+        MockHttpServletResponse response = export(get("/api/invoices/export").param("format", "ndjson")
+                .header(HttpHeaders.ACCEPT_ENCODING, "br, gzip;q=0.8"));
+
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(gunzip(response.getContentAsByteArray()).lines().filter(line -> line.contains("\"EXP-"))).hasSize(3);
+    }
+
+    @Test
+    void plainWhenGzipIsRefused() throws Exception {
+        MockHttpServletResponse response = export(get("/api/invoices/export")
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, identity"));
+
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+        assertThat(response.getContentAsString(StandardCharsets.UTF_8)).startsWith("id,invoice_number,");
+    }
+
+    private MockHttpServletResponse export(MockHttpServletRequestBuilder request) throws Exception {
+        var started = mvc.perform(request).andExpect(request().asyncStarted()).andReturn();
+        return mvc.perform(asyncDispatch(started)).andExpect(status().isOk()).andReturn().getResponse();
+    }
+
+    private static String gunzip(byte[] body) throws IOException {
+        try (var in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
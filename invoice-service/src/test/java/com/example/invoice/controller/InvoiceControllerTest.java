@@ -0,0 +1,170 @@
+package com.example.invoice.controller;
+
+import com.example.invoice.common.KeysetCursor;
+import com.example.invoice.model.Customer;
+import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceRevision;
+import com.example.invoice.repository.CustomerRepository;
+import com.example.invoice.repository.InvoiceRepository;
+import com.example.invoice.service.InvoiceService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Invoice listing, and conditional reads and writes of an invoice, whose ETag also moves with its customer.
+ * A lost update is simulated on the service. Uses the local profile, which has the OAuth client registration
+ * the full context needs.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("local")
+class InvoiceControllerTest {
+
+    @Autowired MockMvc mvc;
+    @Autowired CustomerRepository customerRepository;
+    @Autowired InvoiceRepository invoiceRepository;
+    @SpyBean InvoiceService invoices;
+
+    private Customer customer;
+    private Invoice invoice;
+
+    @BeforeEach
+    void setUp() {
+        customer = new Customer();
+        customer.setName("Conditional Co");
+        customer.setEmail("billing@conditional-invoice.test");
+        customer = customerRepository.save(customer);
+        invoice = new Invoice();
+        invoice.setCustomer(customer);
+        invoice.setInvoiceNumber("COND-1");
+        invoice = invoiceRepository.save(invoice);
+    }
+
+    @AfterEach
+    void tearDown() {
+        invoiceRepository.deleteById(invoice.getId());
+        customerRepository.deleteById(customer.getId());
+    }
+
+    @Test
+    void listReturnsSummariesUnlessExpanded() throws Exception {
+        mvc.perform(get("/api/invoices"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].items").doesNotExist());
+        mvc.perform(get("/api/invoices").param("expand", "items,payments"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].items").isArray());
+    }
+
+    @Test
+    void unknownExpansionIsBadRequest() throws Exception {
+        mvc.perform(get("/api/invoices").param("expand", "items,itmes")).andExpect(status().isBadRequest());
+        mvc.perform(get("/api/invoices").param("expand", "foo")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void cursorWithAKeyThatIsNotADateIsBadRequest() throws Exception {
+        String token = new KeysetCursor<>("2025-02-30", invoice.getId()).encode();
+
+        mvc.perform(get("/api/invoices").param("limit", "10").param("after", token))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void getIsTaggedWithInvoiceAndCustomerVersions() throws Exception {
+        mvc.perform(get("/api/invoices/{id}", invoice.getId()))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, InvoiceRevision.of(invoice).etag()))
+                .andExpect(jsonPath("$.invoiceNumber").value("COND-1"));
+    }
+
+    @Test
+    void matchingIfNoneMatchIsNotModifiedUntilTheCustomerChanges() throws Exception {
+        String etag = InvoiceRevision.of(invoice).etag();
+        mvc.perform(get("/api/invoices/{id}", invoice.getId()).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        customer.setName("Renamed Ltd");
+        customerRepository.save(customer);
+
+        mvc.perform(get("/api/invoices/{id}", invoice.getId()).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.customer.name").value("Renamed Ltd"));
+    }
+
+    @Test
+    void bodyAndEtagAgreeWhenAWriteLandsBetweenTheTwoReads() throws Exception {
+        InvoiceRevision checked = InvoiceRevision.of(invoice);
+        update(null, "changed since").andExpect(status().isOk());
+        doReturn(checked).when(invoices).revision(invoice.getId());
+
+        mvc.perform(get("/api/invoices/{id}", invoice.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.notes").value("changed since"))
+                .andExpect(header().string(HttpHeaders.ETAG,
+                        new InvoiceRevision(checked.version() + 1, checked.customerVersion()).etag()));
+    }
+
+    @Test
+    void putWithAStaleEtagIsPreconditionFailed() throws Exception {
+        String stale = new InvoiceRevision(invoice.getVersion() + 5, customer.getVersion()).etag();
+
+        update(stale, "never saved").andExpect(status().isPreconditionFailed());
+
+        assertThat(invoiceRepository.findById(invoice.getId()).orElseThrow().getNotes()).isNull();
+    }
+
+    @Test
+    void putWithTheCurrentEtagReturnsTheNextOne() throws Exception {
+        update(InvoiceRevision.of(invoice).etag(), "saved")
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG,
+                        new InvoiceRevision(invoice.getVersion() + 1, customer.getVersion()).etag()));
+    }
+
+    @Test
+    void lostUpdateIsConflictWithoutIfMatch() throws Exception {
+        doThrow(new ObjectOptimisticLockingFailureException(Invoice.class, invoice.getId()))
+                .when(invoices).update(eq(invoice.getId()), any(), any());
+
+        update(null, "lost").andExpect(status().isConflict());
+    }
+
+    @Test
+    void lostUpdateIsPreconditionFailedWithIfMatch() throws Exception {
+        doThrow(new ObjectOptimisticLockingFailureException(Invoice.class, invoice.getId()))
+                .when(invoices).update(eq(invoice.getId()), any(), anyLong());
+
+        update(InvoiceRevision.of(invoice).etag(), "lost").andExpect(status().isPreconditionFailed());
+    }
+
+    private ResultActions update(String ifMatch, String notes) throws Exception {
+        MockHttpServletRequestBuilder request = put("/api/invoices/{id}", invoice.getId())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"notes\":\"" + notes + "\",\"currency\":\"USD\",\"items\":[]}");
+        if (ifMatch != null) request.header(HttpHeaders.IF_MATCH, ifMatch);
+        return mvc.perform(request);
+    }
+}
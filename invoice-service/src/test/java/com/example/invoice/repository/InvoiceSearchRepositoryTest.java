@@ -0,0 +1,81 @@
+package com.example.invoice.repository;
+
+import com.example.invoice.model.Customer;
+import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceSearchCriteria;
+import com.example.invoice.model.InvoiceStatus;
+import com.example.invoice.model.InvoiceSummary;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.*;
+
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+class InvoiceSearchRepositoryTest {
+
+    @Autowired EntityManager em;
+    @Autowired InvoiceRepository invoiceRepository;
+
+    private Customer customer;
+
+    @BeforeEach
+    void setUp() {
+        customer = new Customer();
+        customer.setName("Search Co");
+        customer.setEmail("billing@search.test");
+        em.persist(customer);
+        invoice("S-1", "Retainer, q1");
+        invoice("S-2", "100%,q_1");
+        invoice("S-3", "100x, qa1");
+        em.flush();
+        em.clear();
+    }
+
+    @Test
+    void tagsMatchWholeTagsIgnoringCaseAndSpaces() {
+        assertThat(numbers(Set.of("retainer"))).containsExactly("S-1");
+        assertThat(numbers(Set.of(" Q1 "))).containsExactly("S-1");
+        assertThat(numbers(Set.of("retain"))).isEmpty();
+    }
+
+    @Test
+    void wildcardsInTagsAreMatchedLiterally() {
+        assertThat(numbers(Set.of("100%"))).containsExactly("S-2");
+        assertThat(numbers(Set.of("q_1"))).containsExactly("S-2");
+        assertThat(numbers(Set.of("%"))).isEmpty();
+        assertThat(numbers(Set.of("q\\1"))).isEmpty();
+    }
+
+    @Test
+    void filtersCombine() {
+        var criteria = new InvoiceSearchCriteria(customer.getId(), Set.of(InvoiceStatus.DRAFT),
+                null, null, null, null, null, null, null, null, null, Set.of("q_1"));
+
+        assertThat(invoiceRepository.search(criteria, PageRequest.of(0, 10)))
+                .extracting(InvoiceSummary::invoiceNumber).containsExactly("S-2");
+    }
+
+    private void invoice(String number, String tags) {
+        Invoice invoice = new Invoice();
+        invoice.setCustomer(customer);
+        invoice.setInvoiceNumber(number);
+        invoice.setTags(tags);
+        em.persist(invoice);
+    }
+
+    private List<String> numbers(Set<String> tags) {
+        var criteria = new InvoiceSearchCriteria(null, null, null, null, null, null, null, null, null, null, null, tags);
+        return invoiceRepository.search(criteria, PageRequest.of(0, 10)).map(InvoiceSummary::invoiceNumber).getContent();
+    }
+}
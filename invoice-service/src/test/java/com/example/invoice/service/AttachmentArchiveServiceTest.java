@@ -0,0 +1,121 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.Customer;
+import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceAttachment;
+import com.example.invoice.repository.InvoiceAttachmentRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.*;
+
+@TestPropertySource(properties = "app.uploads.compress-types=text/*")
+@Import({AttachmentArchiveService.class, AttachmentStorageService.class})
+class AttachmentArchiveServiceTest extends CommittedDataTest {
+
+    @Autowired AttachmentArchiveService archiveService;
+    @Autowired AttachmentStorageService storage;
+    @Autowired InvoiceAttachmentRepository attachmentRepository;
+
+    private Customer customer;
+    private Invoice first;
+    private Invoice second;
+
+    @BeforeEach
+    void setUp() {
+        customer = customer("Audit Ltd", "audit@example.test");
+        first = invoice(customer, "INV/2024/1");
+        second = invoice(customer, null);
+    }
+
+    @Test
+    void compressedTypesAreStoredAndTheRestDeflated() throws Exception {
+        attach(first, "scan.pdf", "application/pdf", "%PDF-1.7 scanned receipt");
+        attach(first, "ledger.csv", "text/csv", "date,amount\n".repeat(100));
+
+        Map<String, ZipEntry> entries = new LinkedHashMap<>();
+        Map<String, String> contents = unzip(archiveService.forInvoice(first.getId()), entries);
+
+        assertThat(entries.get("scan.pdf").getMethod()).isEqualTo(ZipEntry.STORED);
+        assertThat(entries.get("ledger.csv").getMethod()).isEqualTo(ZipEntry.DEFLATED);
+        assertThat(contents).containsEntry("scan.pdf", "%PDF-1.7 scanned receipt")
+                .containsEntry("ledger.csv", "date,amount\n".repeat(100));
+        assertThat(archiveService.forInvoice(first.getId()).filename()).isEqualTo("INV_2024_1-attachments.zip");
+    }
+
+    @Test
+    void customerArchiveHasAFolderPerInvoiceAndUniqueNames() throws Exception {
+        attach(first, "receipt.png", "image/png", "first receipt");
+        attach(first, "receipt.png", "image/png", "second receipt");
+        attach(second, "../../etc/receipt.png", "image/png", "third receipt");
+
+        Map<String, String> contents = unzip(archiveService.forCustomer(customer.getId()), new LinkedHashMap<>());
+
+        assertThat(contents).containsExactly(
+                entry("INV_2024_1/receipt.png", "first receipt"),
+                entry("INV_2024_1/receipt (2).png", "second receipt"),
+                entry("invoice-" + second.getId() + "/receipt.png", "third receipt"));
+    }
+
+    @Test
+    void attachmentsWithoutRecordedCrcOrFileStillArchive() throws Exception {
+        InvoiceAttachment legacy = attach(first, "old.pdf", "application/pdf", "stored before CRCs");
+        legacy.setCrc32(null);
+        attachmentRepository.save(legacy);
+        InvoiceAttachment lost = attach(first, "lost.pdf", "application/pdf", "file went missing");
+        storage.delete(lost.getStorageKey());
+
+        Map<String, ZipEntry> entries = new LinkedHashMap<>();
+        Map<String, String> contents = unzip(archiveService.forInvoice(first.getId()), entries);
+
+        assertThat(contents).containsOnlyKeys("old.pdf");
+        assertThat(entries.get("old.pdf").getMethod()).isEqualTo(ZipEntry.DEFLATED);
+    }
+
+    @Test
+    void unknownOwnersFailBeforeStreaming() {
+        assertThatThrownBy(() -> archiveService.forInvoice(-1L)).isInstanceOf(NoSuchElementException.class);
+        assertThatThrownBy(() -> archiveService.forCustomer(-1L)).isInstanceOf(NoSuchElementException.class);
+    }
+
+    private InvoiceAttachment attach(Invoice invoice, String filename, String contentType, String content)
+            throws Exception {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        AttachmentStorageService.StoredBlob blob = storage.save(new ByteArrayInputStream(bytes), contentType);
+        InvoiceAttachment att = new InvoiceAttachment();
+        att.setInvoice(invoice);
+        att.setFilename(filename);
+        att.setContentType(contentType);
+        att.setSize(bytes.length);
+        att.setStorageKey(blob.key());
+        att.setContentEncoding(blob.encoding());
+        att.setCrc32(blob.crc32());
+        return attachmentRepository.save(att);
+    }
+
+    private Map<String, String> unzip(AttachmentArchiveService.Archive archive, Map<String, ZipEntry> entries)
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        archiveService.writeZip(archive, out);
+        Map<String, String> contents = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            for (ZipEntry e; (e = zip.getNextEntry()) != null; ) {
+                entries.put(e.getName(), e);
+                contents.put(e.getName(), new String(zip.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.invoice.service;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Save and read throughput of attachment storage with and without at-rest gzip, plus the space saved,
+ * for a compressible export and for already-compressed (random) content. Run with
+ * {@code ./gradlew benchmark}; it is excluded from the regular test task.
+ */
+@Tag("benchmark")
+class AttachmentCompressionBenchmark {
+    private static final int SIZE = 8 * 1024 * 1024;
+    private static final int ROUNDS = 20;
+
+    @TempDir Path uploads;
+
+    @Test
+    void compressionThroughputAndSavings() throws Exception {
+        StringBuilder csv = new StringBuilder();
+        Random random = new Random(42);
+        for (int row = 0; csv.length() < SIZE; row++) {
+            csv.append("INV-").append(100000 + row).append(",2024-0").append(1 + row % 9).append("-1")
+                    .append(row % 10).append(",Acme Consulting ").append(random.nextInt(500)).append(',')
+                    .append(random.nextInt(100000) / 100.0).append(",EUR\n");
+        }
+        byte[] text = csv.substring(0, SIZE).getBytes(StandardCharsets.US_ASCII);
+        byte[] binary = new byte[SIZE];
+        random.nextBytes(binary);
+
+        run("csv", text, "text/csv");
+        run("random", binary, "application/pdf");
+    }
+
+    private void run(String label, byte[] content, String contentType) throws Exception {
+        for (String types : new String[] {"", contentType}) {
+            Path dir = Files.createTempDirectory(uploads, "run");
+            AttachmentStorageService storage = new AttachmentStorageService(dir.toString(), types);
+            AttachmentStorageService.StoredBlob blob = null;
+            long start = System.nanoTime();
+            for (int n = 0; n < ROUNDS; n++) {
+                // vary one byte so every round stores a new blob instead of deduplicating
+                content[0] = (byte) n;
+                blob = storage.save(new ByteArrayInputStream(content), contentType);
+            }
+            long saveNanos = System.nanoTime() - start;
+            long stored = Files.size(storage.load(blob.key(), blob.encoding()));
+
+            start = System.nanoTime();
+            for (int n = 0; n < ROUNDS; n++) {
+                try (InputStream in = storage.open(blob.key(), blob.encoding())) {
+                    in.transferTo(OutputStream.nullOutputStream());
+                }
+            }
+            long readNanos = System.nanoTime() - start;
+            long mb = ((long) SIZE * ROUNDS) >> 20;
+            System.out.printf("attachment storage (%s, %s): save %.0f MB/s, read %.0f MB/s, stored %.1f%% of original%n",
+                    label, blob.encoding() == null ? "plain" : blob.encoding(),
+                    mb / (saveNanos / 1e9), mb / (readNanos / 1e9), 100.0 * stored / content.length);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.AttachmentUpload;
+import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceAttachment;
+import com.example.invoice.repository.AttachmentUploadRepository;
+import com.example.invoice.repository.InvoiceAttachmentRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.*;
+
+/** A batch size of 2 makes every pass span several lookups. */
+@TestPropertySource(properties = "app.uploads.reconcile.batch-size=2")
+@Import({AttachmentReconciler.class, AttachmentStorageService.class, SimpleMeterRegistry.class})
+class AttachmentReconcilerTest extends CommittedDataTest {
+    private static final Instant OLD = Instant.now().minus(Duration.ofDays(30));
+
+    @TempDir static Path uploads;
+
+    @DynamicPropertySource
+    static void uploadsDir(DynamicPropertyRegistry registry) {
+        registry.add("app.uploads.dir", uploads::toString);
+    }
+
+    @Autowired AttachmentReconciler reconciler;
+    @Autowired AttachmentStorageService storage;
+    @Autowired MeterRegistry registry;
+    @Autowired InvoiceAttachmentRepository attachmentRepository;
+    @Autowired AttachmentUploadRepository uploadRepository;
+
+    private Invoice invoice;
+    private long danglingBefore;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // rows of other test classes point into their own directories
+        danglingBefore = reconciler.reconcile().danglingRows();
+        invoice = invoice(customer("Storage Co", "storage@example.test"), null);
+    }
+
+    @Test
+    void unreferencedBlobsGoAfterTheGracePeriod() throws Exception {
+        String kept = attach(blob("still attached"));
+        String orphan = blob("attachment deleted long ago");
+        String recent = blob("row not committed yet");
+        Path thumbnail = storage.thumbnail(orphan);
+        Files.writeString(thumbnail, "png");
+        age(storage.load(kept), storage.load(orphan), thumbnail);
+
+        AttachmentReconciler.Progress progress = reconciler.reconcile();
+
+        assertThat(storage.load(kept)).exists();
+        assertThat(storage.load(orphan)).doesNotExist();
+        assertThat(thumbnail).doesNotExist();
+        assertThat(storage.load(recent)).exists();
+        assertThat(progress.deleted()).isEqualTo(2);
+        assertThat(progress.reclaimedBytes()).isEqualTo("attachment deleted long ago".length() + 3);
+        assertThat(registry.counter("attachment.reconcile.deleted", "area", "blobs").count()).isGreaterThanOrEqualTo(2);
+        storage.delete(recent);
+    }
+
+    @Test
+    void deletedInvoiceLeavesItsBlobsToTheReconciler() throws Exception {
+        String key = attach(blob("attached to a deleted invoice"));
+        age(storage.load(key));
+
+        invoiceRepository.delete(invoiceRepository.findById(invoice.getId()).orElseThrow());
+        reconciler.reconcile();
+
+        assertThat(storage.load(key)).doesNotExist();
+    }
+
+    @Test
+    void unreferencedSnapshotsAndTemporaryFilesGo() throws Exception {
+        String current = storage.saveContentAddressed("current snapshot".getBytes(StandardCharsets.UTF_8));
+        String stale = storage.saveContentAddressed("stale snapshot".getBytes(StandardCharsets.UTF_8));
+        invoice.setPdfSnapshotSha256(current);
+        invoice = invoiceRepository.save(invoice);
+        Path crashed = Files.createTempFile(uploads.resolve("blobs"), "upload", ".incoming");
+        age(storage.loadContentAddressed(current), storage.loadContentAddressed(stale), crashed);
+
+        reconciler.reconcile();
+
+        assertThat(storage.loadContentAddressed(current)).exists();
+        assertThat(storage.loadContentAddressed(stale)).doesNotExist();
+        assertThat(crashed).doesNotExist();
+        storage.deleteContentAddressed(current);
+    }
+
+    @Test
+    void abandonedUploadsAndOrphanedPartsGo() throws Exception {
+        String orphanPart = UUID.randomUUID().toString();
+        storage.createPart(orphanPart, 10);
+        AttachmentUpload live = upload(Instant.now());
+        AttachmentUpload abandoned = upload(OLD);
+        age(partOf(orphanPart), partOf(live.getId()));
+
+        AttachmentReconciler.Progress progress = reconciler.reconcile();
+
+        assertThat(partOf(orphanPart)).doesNotExist();
+        assertThat(partOf(live.getId())).exists();
+        assertThat(partOf(abandoned.getId())).doesNotExist();
+        assertThat(uploadRepository.findById(abandoned.getId())).isEmpty();
+        assertThat(progress.expiredUploads()).isEqualTo(1);
+        storage.deletePart(live.getId());
+    }
+
+    @Test
+    void rowsWithoutAFileAreReportedNotTouched() throws Exception {
+        String key = attach(blob("lost in a disk failure"));
+        storage.delete(key);
+
+        AttachmentReconciler.Progress progress = reconciler.reconcile();
+
+        assertThat(progress.danglingRows()).isEqualTo(danglingBefore + 1);
+        assertThat(attachmentRepository.findByInvoice_Id(invoice.getId())).hasSize(1);
+        assertThat(registry.get("attachment.reconcile.dangling").gauge().value()).isEqualTo(danglingBefore + 1);
+    }
+
+    @Test
+    void aBlobReferencedWhileItIsClaimedIsPutBack() throws Exception {
+        String key = blob("attached while the pass runs");
+        age(storage.load(key));
+        AttachmentReconciler racing = new AttachmentReconciler(storage, afterFirstLookup(() -> attach(key)),
+                invoiceRepository, uploadRepository, new SimpleMeterRegistry(), Duration.ofHours(1),
+                Duration.ofDays(7), 2);
+
+        AttachmentReconciler.Progress progress = racing.reconcile();
+
+        assertThat(storage.load(key)).exists();
+        assertThat(claimedFiles()).isEmpty();
+        assertThat(progress.deleted()).isZero();
+    }
+
+    @Test
+    void contentSavedWhileItsBlobIsClaimedIsStoredAfresh() throws Exception {
+        String key = blob("saved again mid-delete");
+        Path stored = storage.load(key);
+        age(stored);
+        Path claimed = stored.resolveSibling(stored.getFileName() + AttachmentStorageService.CLAIMED);
+        Files.move(stored, claimed);
+
+        assertThat(blob("saved again mid-delete")).isEqualTo(key);
+        reconciler.reconcile();
+
+        assertThat(stored).exists().hasContent("saved again mid-delete");
+        assertThat(claimed).as("left over by the interrupted delete").doesNotExist();
+        storage.delete(key);
+    }
+
+    @Test
+    void legacyUploadsAreReportedNotDeleted() throws Exception {
+        Path legacy = Files.writeString(uploads.resolve(UUID.randomUUID() + "_invoice.pdf"), "uploaded before dedup");
+        age(legacy);
+
+        AttachmentReconciler.Progress progress = reconciler.reconcile();
+
+        assertThat(legacy).exists();
+        assertThat(progress.unreferencedLegacyFiles()).isEqualTo(1);
+        assertThat(progress.deleted()).isZero();
+        Files.delete(legacy);
+    }
+
+    private String blob(String content) throws Exception {
+        return storage.save(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), "text/plain").key();
+    }
+
+    private String attach(String key) {
+        InvoiceAttachment att = new InvoiceAttachment();
+        att.setInvoice(invoice);
+        att.setFilename("file.txt");
+        att.setContentType("text/plain");
+        att.setStorageKey(key);
+        attachmentRepository.save(att);
+        return key;
+    }
+
+    private AttachmentUpload upload(Instant createdAt) throws Exception {
+        AttachmentUpload upload = new AttachmentUpload();
+        upload.setId(UUID.randomUUID().toString());
+        upload.setInvoice(invoice);
+        upload.setFilename("scan.pdf");
+        upload.setSize(10);
+        upload.setChunkSize(10);
+        upload.setCreatedAt(createdAt);
+        storage.createPart(upload.getId(), 10);
+        return uploadRepository.save(upload);
+    }
+
+    private Path partOf(String uploadId) {
+        return uploads.resolve("incoming").resolve(uploadId + ".part");
+    }
+
+    /** The attachment repository, running {@code concurrently} as soon as the first key lookup returns. */
+    private InvoiceAttachmentRepository afterFirstLookup(Runnable concurrently) {
+        AtomicBoolean ran = new AtomicBoolean();
+        return (InvoiceAttachmentRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {InvoiceAttachmentRepository.class}, (proxy, method, args) -> {
+                    Object result = method.invoke(attachmentRepository, args);
+                    if (method.getName().equals("findReferencedStorageKeys") && ran.compareAndSet(false, true)) {
+                        concurrently.run();
+                    }
+                    return result;
+                });
+    }
+
+    private List<Path> claimedFiles() throws Exception {
+        try (Stream<Path> files = Files.walk(uploads)) {
+            return files.filter(f -> f.toString().endsWith(AttachmentStorageService.CLAIMED)).toList();
+        }
+    }
+
+    private static void age(Path... files) throws Exception {
+        for (Path file : files) Files.setLastModifiedTime(file, FileTime.from(OLD));
+    }
+}
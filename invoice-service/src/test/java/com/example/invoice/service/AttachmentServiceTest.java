@@ -0,0 +1,67 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceAttachment;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.*;
+
+@TestPropertySource(properties = "app.uploads.reuse-grace=0s")
+@Import({AttachmentService.class, AttachmentStorageService.class, ThumbnailService.class, SimpleMeterRegistry.class})
+class AttachmentServiceTest extends CommittedDataTest {
+
+    @Autowired AttachmentService attachmentService;
+    @Autowired AttachmentStorageService storage;
+
+    private Invoice first;
+    private Invoice second;
+
+    @BeforeEach
+    void setUp() {
+        var customer = customer("Contracts Inc", "contracts@example.test");
+        first = invoice(customer, null);
+        second = invoice(customer, null);
+    }
+
+    @Test
+    void identicalUploadsShareOneFannedOutBlob() throws Exception {
+        InvoiceAttachment a = attachmentService.upload(first.getId(), contract("a.pdf"));
+        InvoiceAttachment b = attachmentService.upload(second.getId(), contract("b.pdf"));
+
+        assertThat(a.getStorageKey()).isEqualTo(b.getStorageKey()).matches("[0-9a-f]{64}");
+        Path blob = storage.load(a.getStorageKey());
+        String key = a.getStorageKey();
+        assertThat(blob.getParent().getFileName().toString()).isEqualTo(key.substring(2, 4));
+        assertThat(blob.getParent().getParent().getFileName().toString()).isEqualTo(key.substring(0, 2));
+        assertThat(Files.readString(blob)).isEqualTo("signed contract");
+        assertThat(a.getFilename()).isEqualTo("a.pdf");
+    }
+
+    @Test
+    void blobIsRemovedWithItsLastReference() throws Exception {
+        InvoiceAttachment a = attachmentService.upload(first.getId(), contract("a.pdf"));
+        InvoiceAttachment b = attachmentService.upload(second.getId(), contract("b.pdf"));
+        Path blob = storage.load(a.getStorageKey());
+
+        attachmentService.delete(a.getId());
+        assertThat(blob).exists();
+
+        attachmentService.delete(b.getId());
+        assertThat(blob).doesNotExist();
+    }
+
+    private static MockMultipartFile contract(String name) {
+        return new MockMultipartFile("file", name, "application/pdf",
+                "signed contract".getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.invoice.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+class AttachmentStorageServiceTest {
+    private static final byte[] CSV = "date,amount\n2024-01-01,100.00\n".repeat(500).getBytes(StandardCharsets.UTF_8);
+
+    @TempDir Path uploads;
+
+    private AttachmentStorageService storage;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        storage = new AttachmentStorageService(uploads.toString(), "text/*,application/pdf");
+    }
+
+    @Test
+    void matchingTypeIsStoredGzippedUnderTheOriginalHash() throws Exception {
+        AttachmentStorageService.StoredBlob blob = storage.save(new ByteArrayInputStream(CSV), "text/csv; charset=utf-8");
+
+        assertThat(blob.encoding()).isEqualTo(AttachmentStorageService.GZIP);
+        assertThat(blob.key()).isEqualTo(sha256(CSV));
+        assertThat(storage.load(blob.key(), blob.encoding())).hasFileName(blob.key() + ".gz");
+        assertThat(Files.size(storage.load(blob.key(), blob.encoding()))).isLessThan(CSV.length / 10);
+        try (InputStream in = storage.open(blob.key(), blob.encoding())) {
+            assertThat(in.readAllBytes()).isEqualTo(CSV);
+        }
+    }
+
+    @Test
+    void otherTypesAndIncompressibleContentStayPlain() throws Exception {
+        byte[] random = new byte[64 * 1024];
+        new Random(7).nextBytes(random);
+
+        AttachmentStorageService.StoredBlob image = storage.save(new ByteArrayInputStream(CSV), "image/png");
+        AttachmentStorageService.StoredBlob scan = storage.save(new ByteArrayInputStream(random), "application/pdf");
+
+        assertThat(image.encoding()).isNull();
+        assertThat(scan.encoding()).isNull();
+        assertThat(storage.load(scan.key())).hasBinaryContent(random);
+    }
+
+    @Test
+    void sameContentReusesTheVariantAlreadyStored() throws Exception {
+        AttachmentStorageService.StoredBlob plain = storage.save(new ByteArrayInputStream(CSV), "application/octet-stream");
+        AttachmentStorageService.StoredBlob again = storage.save(new ByteArrayInputStream(CSV), "text/csv");
+
+        assertThat(again).isEqualTo(plain);
+        assertThat(storage.load(plain.key(), AttachmentStorageService.GZIP)).doesNotExist();
+    }
+
+    @Test
+    void unusedBlobIsDeletedWithItsPreview() throws Exception {
+        AttachmentStorageService.StoredBlob blob = storage.save(new ByteArrayInputStream(CSV), "text/csv");
+        storage.saveThumbnail(blob.key(), out -> out.write(1));
+
+        assertThat(storage.deleteBlobUnlessReused(blob.key(), Instant.now().plusSeconds(60), () -> false)).isTrue();
+
+        assertThat(storage.load(blob.key(), blob.encoding())).doesNotExist();
+        assertThat(storage.thumbnail(blob.key())).doesNotExist();
+        try (var files = storage.blobFiles()) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void blobTouchedWithinTheGraceIsKept() throws Exception {
+        AttachmentStorageService.StoredBlob blob = storage.save(new ByteArrayInputStream(CSV), "text/csv");
+
+        assertThat(storage.deleteBlobUnlessReused(blob.key(), Instant.now().minusSeconds(60), () -> false)).isFalse();
+
+        assertThat(storage.load(blob.key(), blob.encoding())).exists();
+    }
+
+    @Test
+    void blobStoredAgainWhileClaimedSurvives() throws Exception {
+        AttachmentStorageService.StoredBlob blob = storage.save(new ByteArrayInputStream(CSV), "text/csv");
+
+        storage.deleteBlobUnlessReused(blob.key(), Instant.now().plusSeconds(60), () -> {
+            try {
+                // an upload of the same bytes between the claim and the last look no longer finds the blob
+                storage.save(new ByteArrayInputStream(CSV), "text/csv");
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+            return false;
+        });
+
+        try (InputStream in = storage.open(blob.key(), blob.encoding())) {
+            assertThat(in.readAllBytes()).isEqualTo(CSV);
+        }
+    }
+
+    @Test
+    void blobReferencedAgainWhileClaimedIsPutBack() throws Exception {
+        AttachmentStorageService.StoredBlob blob = storage.save(new ByteArrayInputStream(CSV), "text/csv");
+
+        assertThat(storage.deleteBlobUnlessReused(blob.key(), Instant.now().plusSeconds(60), () -> true)).isFalse();
+
+        assertThat(storage.load(blob.key(), blob.encoding())).exists();
+    }
+
+    @Test
+    void committedPartIsCompressedLikeAnUpload() throws Exception {
+        String uploadId = "6f1c2b8e-4a52-4d7e-9a0c-3c5d2e1f0a9b";
+        storage.createPart(uploadId, CSV.length);
+        storage.writeChunk(uploadId, 0, Channels.newChannel(new ByteArrayInputStream(CSV)), CSV.length);
+
+        AttachmentStorageService.StoredBlob blob = storage.commitPart(uploadId, sha256(CSV), "text/csv");
+
+        assertThat(blob.encoding()).isEqualTo(AttachmentStorageService.GZIP);
+        try (InputStream in = storage.open(blob.key(), blob.encoding())) {
+            assertThat(in.readAllBytes()).isEqualTo(CSV);
+        }
+        storage.delete(blob.key());
+        assertThat(storage.load(blob.key(), blob.encoding())).doesNotExist();
+    }
+
+    private static String sha256(byte[] content) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceAttachment;
+import com.example.invoice.repository.AttachmentUploadRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import static org.assertj.core.api.Assertions.*;
+
+@TestPropertySource(properties = "app.uploads.chunk-size=4")
+@Import({AttachmentUploadService.class, AttachmentStorageService.class, ThumbnailService.class,
+        SimpleMeterRegistry.class})
+class AttachmentUploadServiceTest extends CommittedDataTest {
+    private static final byte[] CONTENT = "scanned receipt".getBytes(StandardCharsets.UTF_8);
+
+    @Autowired AttachmentUploadService uploadService;
+    @Autowired AttachmentStorageService storage;
+    @Autowired AttachmentUploadRepository uploadRepository;
+
+    private Invoice invoice;
+
+    @BeforeEach
+    void setUp() {
+        invoice = invoice(customer("Receipts Ltd", "receipts@example.test"), null);
+    }
+
+    @Test
+    void chunksInAnyOrderAssembleIntoAnAttachment() throws Exception {
+        var upload = uploadService.start(invoice.getId(), newUpload(sha256(CONTENT)));
+        assertThat(upload.missingOffsets()).containsExactly(0L, 4L, 8L, 12L);
+
+        uploadService.writeChunk(upload.id(), 12, chunk(12));
+        uploadService.writeChunk(upload.id(), 4, chunk(4));
+        uploadService.writeChunk(upload.id(), 4, chunk(4));
+
+        assertThat(uploadService.status(upload.id()).missingOffsets()).containsExactly(0L, 8L);
+        assertThatThrownBy(() -> uploadService.complete(upload.id(), null))
+                .isInstanceOf(IllegalStateException.class);
+
+        uploadService.writeChunk(upload.id(), 0, chunk(0));
+        uploadService.writeChunk(upload.id(), 8, chunk(8));
+        InvoiceAttachment att = uploadService.complete(upload.id(), null);
+
+        assertThat(att.getStorageKey()).isEqualTo(sha256(CONTENT));
+        assertThat(Files.readAllBytes(storage.load(att.getStorageKey()))).isEqualTo(CONTENT);
+        assertThat(uploadRepository.existsById(upload.id())).isFalse();
+    }
+
+    @Test
+    void checksumMismatchKeepsTheSessionForAnotherTry() throws Exception {
+        var upload = uploadService.start(invoice.getId(), newUpload(null));
+        for (long offset = 0; offset < CONTENT.length; offset += 4) uploadService.writeChunk(upload.id(), offset, chunk(offset));
+
+        assertThatThrownBy(() -> uploadService.complete(upload.id(), sha256("other".getBytes())))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Checksum mismatch");
+        assertThat(uploadService.complete(upload.id(), sha256(CONTENT)).getSize()).isEqualTo(CONTENT.length);
+    }
+
+    @Test
+    void truncatedChunkIsNotRecorded() throws Exception {
+        var upload = uploadService.start(invoice.getId(), newUpload(null));
+
+        assertThatThrownBy(() -> uploadService.writeChunk(upload.id(), 0,
+                Channels.newChannel(new ByteArrayInputStream(CONTENT, 0, 2))))
+                .isInstanceOf(EOFException.class);
+        assertThat(uploadService.status(upload.id()).missingOffsets()).contains(0L);
+    }
+
+    private static AttachmentUploadService.NewUpload newUpload(String sha256) {
+        return new AttachmentUploadService.NewUpload("receipt.txt", "text/plain", CONTENT.length, sha256);
+    }
+
+    private static ReadableByteChannel chunk(long offset) {
+        int from = (int) offset;
+        return Channels.newChannel(new ByteArrayInputStream(CONTENT, from, Math.min(4, CONTENT.length - from)));
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.Customer;
+import com.example.invoice.model.EmailDelivery;
+import com.example.invoice.model.EmailOutboxMessage;
+import com.example.invoice.model.EmailStatus;
+import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceStatus;
+import com.example.invoice.repository.EmailOutboxRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.thymeleaf.ThymeleafAutoConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.oauth2.client.InMemoryOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.*;
+
+@Import({InvoiceService.class, InvoiceNumberGenerator.class, PdfService.class, PdfCache.class,
+        AttachmentStorageService.class, PdfRendererSetup.class, PdfRenderQueue.class, CustomerService.class,
+        SimpleMeterRegistry.class})
+@ImportAutoConfiguration(ThymeleafAutoConfiguration.class)
+class BulkEmailServiceTest extends CommittedDataTest {
+
+    @Autowired InvoiceService invoiceService;
+    @Autowired PdfService pdfService;
+    @Autowired EmailOutboxRepository outboxRepository;
+
+    private FakeGmailServer gmail;
+    private GmailEmailService gmailService;
+    private EmailOutboxDispatcher dispatcher;
+    private BulkEmailService bulkEmail;
+    private final List<Invoice> invoices = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        gmail = new FakeGmailServer();
+        var clients = new InMemoryOAuth2AuthorizedClientService(new InMemoryClientRegistrationRepository(registration()));
+        Instant now = Instant.now();
+        clients.saveAuthorizedClient(new OAuth2AuthorizedClient(registration(), "alice",
+                        new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, "token", now, now.plusSeconds(3600))),
+                new TestingAuthenticationToken("alice", null));
+        gmailService = new GmailEmailService(clients, registry, gmail.rootUrl(), 4, 100);
+        dispatcher = new EmailOutboxDispatcher(outboxRepository, gmailService, pdfService, registry, 50, 2, 2, 8,
+                Duration.ofMinutes(1), Duration.ofHours(1), Duration.ofMinutes(5), 0, 10);
+        bulkEmail = new BulkEmailService(invoiceService, invoiceRepository, outboxRepository, dispatcher, 2, 1,
+                Duration.ofHours(1));
+        Customer customer = customer("Bulk Ltd", "billing@bulk.test");
+        for (int n = 1; n <= 3; n++) invoices.add(invoice(customer, "BULK-" + n));
+        invoices.add(invoice(customer("Walk-in", ""), "BULK-4"));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        bulkEmail.shutdown();
+        dispatcher.shutdown();
+        // also removes the stored PDF snapshots
+        invoices.forEach(invoice -> invoiceService.delete(invoice.getId()));
+        gmailService.shutdown();
+        gmail.close();
+    }
+
+    @Test
+    void finalizesInBatchesAndSendsEachInvoiceWithItsPdf() throws Exception {
+        List<Long> ids = invoices.stream().map(Invoice::getId).toList();
+
+        BulkEmailService.Progress started = bulkEmail.start(new BulkEmailService.Request(ids, null, null), "alice");
+        assertThat(started.requested()).isEqualTo(4);
+
+        BulkEmailService.Progress done = await(started.id(), p -> !p.queuing() && p.sent() == 3);
+        assertThat(done.error()).isNull();
+        assertThat(done.queued()).isEqualTo(3);
+        assertThat(done.withoutAddress()).containsExactly(ids.get(3));
+        assertThat(done.invoices()).extracting(EmailDelivery::invoiceId).containsExactly(ids.get(0), ids.get(1), ids.get(2));
+        assertThat(done.invoices()).allMatch(d -> d.status() == EmailStatus.SENT && d.recipient().equals("billing@bulk.test"));
+        assertThat(gmail.sent()).isEqualTo(3);
+        for (int n = 0; n < 3; n++) {
+            assertThat(invoiceRepository.findById(ids.get(n)).orElseThrow().getStatus()).isEqualTo(InvoiceStatus.SENT);
+        }
+        assertThat(invoiceRepository.findById(ids.get(3)).orElseThrow().getStatus()).isEqualTo(InvoiceStatus.DRAFT);
+        assertThat(ids.subList(0, 3)).as("rendering the attachment stores the snapshot")
+                .allMatch(id -> pdfService.version(id).pdfSnapshotSha256() != null);
+    }
+
+    @Test
+    void aBatchOnlyWritesRowsAndLeavesRenderingToTheDispatcher() {
+        List<Long> batch = List.of(invoices.get(0).getId(), invoices.get(1).getId());
+
+        List<EmailOutboxMessage> queued = invoiceService.queueEmails(batch, "alice",
+                new InvoiceService.EmailRequest(null, null, null), null);
+
+        assertThat(queued).hasSize(2).allMatch(m -> m.getStatus() == EmailStatus.PENDING);
+        for (Long id : batch) {
+            assertThat(invoiceRepository.findById(id).orElseThrow().getStatus()).isEqualTo(InvoiceStatus.SENT);
+            assertThat(pdfService.version(id).pdfSnapshotSha256()).isNull();
+        }
+    }
+
+    @Test
+    void unknownInvoicesFailBeforeAnythingIsQueued() {
+        List<Long> ids = List.of(invoices.get(0).getId(), -1L);
+
+        assertThatThrownBy(() -> bulkEmail.start(new BulkEmailService.Request(ids, null, null), "alice"))
+                .isInstanceOf(NoSuchElementException.class)
+                .hasMessageContaining("-1");
+        assertThat(outboxRepository.findByInvoice_Id(ids.get(0))).isEmpty();
+        assertThat(invoiceRepository.findById(ids.get(0)).orElseThrow().getStatus()).isEqualTo(InvoiceStatus.DRAFT);
+    }
+
+    @Test
+    void onlyTheSenderCanFollowProgress() {
+        String id = bulkEmail.start(new BulkEmailService.Request(List.of(invoices.get(0).getId()), "Hi", "Hello"), "alice").id();
+
+        assertThatThrownBy(() -> bulkEmail.progress(id, "bob")).isInstanceOf(NoSuchElementException.class);
+        await(id, p -> !p.queuing());
+    }
+
+    /** The dispatcher is woken by the job itself; nothing here polls it. */
+    private BulkEmailService.Progress await(String id, Predicate<BulkEmailService.Progress> condition) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(20).toNanos();
+        BulkEmailService.Progress progress = bulkEmail.progress(id, "alice");
+        while (!condition.test(progress) && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            progress = bulkEmail.progress(id, "alice");
+        }
+        assertThat(condition).accepts(progress);
+        return progress;
+    }
+
+    private static ClientRegistration registration() {
+        return ClientRegistration.withRegistrationId("google")
+                .clientId("client")
+                .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+                .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+                .authorizationUri("https://accounts.example.test/auth")
+                .tokenUri("https://accounts.example.test/token")
+                .build();
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.Customer;
+import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceItem;
+import com.example.invoice.repository.CustomerRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.thymeleaf.ThymeleafAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Insert throughput of {@link InvoiceService#createAll} for invoices with many lines. Run with
+ * {@code ./gradlew benchmark}; it is excluded from the regular test task.
+ */
+@Tag("benchmark")
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+@Import({InvoiceService.class, InvoiceNumberGenerator.class, PdfService.class, PdfCache.class,
+        AttachmentStorageService.class, PdfRendererSetup.class, PdfRenderQueue.class, CustomerService.class,
+        SimpleMeterRegistry.class})
+@ImportAutoConfiguration(ThymeleafAutoConfiguration.class)
+class BulkInsertBenchmark {
+    private static final int INVOICES = 200;
+    private static final int LINES_PER_INVOICE = 200;
+    private static final int ROUNDS = 5;
+
+    @Autowired EntityManager em;
+    @Autowired EntityManagerFactory emf;
+    @Autowired CustomerRepository customerRepository;
+    @Autowired InvoiceService invoiceService;
+
+    @Test
+    void insertInvoicesWithLines() {
+        Statistics stats = emf.unwrap(SessionFactory.class).getStatistics();
+        Customer customer = new Customer();
+        customer.setName("Bench");
+        customer.setEmail("bench@example.test");
+        customerRepository.saveAndFlush(customer);
+
+        long rows = 0;
+        long nanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            List<Invoice> batch = invoices(customer);
+            stats.clear();
+            long start = System.nanoTime();
+            invoiceService.createAll(batch);
+            em.flush();
+            nanos += System.nanoTime() - start;
+            rows += stats.getEntityInsertCount();
+            em.clear();
+        }
+        System.out.printf("bulk insert: %d rows in %.1f ms, %.0f rows/sec, %d statements in last round%n",
+                rows, nanos / 1e6, rows / (nanos / 1e9), stats.getPrepareStatementCount());
+    }
+
+    private static List<Invoice> invoices(Customer customer) {
+        List<Invoice> invoices = new ArrayList<>(INVOICES);
+        for (int n = 0; n < INVOICES; n++) {
+            Invoice invoice = new Invoice();
+            invoice.setCustomer(customer);
+            for (int l = 0; l < LINES_PER_INVOICE; l++) {
+                InvoiceItem item = new InvoiceItem();
+                item.setInvoice(invoice);
+                item.setDescription("Line " + l);
+                item.setQuantity(BigDecimal.ONE);
+                item.setUnitPrice(new BigDecimal("9.99"));
+                item.setTaxRate(new BigDecimal("10.00"));
+                invoice.getItems().add(item);
+            }
+            invoices.add(invoice);
+        }
+        return invoices;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.Customer;
+import com.example.invoice.model.Invoice;
+import com.example.invoice.repository.CustomerRepository;
+import com.example.invoice.repository.InvoiceRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Service tests whose data must be committed, because the code under test opens its own transactions or
+ * threads. Customers and invoices made through {@link #customer} and {@link #invoice} are deleted after each
+ * test, together with everything the schema cascades from them (items, payments, attachments, uploads and
+ * outbox rows); subclasses stop their own executors in an {@code @AfterEach}, which runs first.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+abstract class CommittedDataTest {
+
+    @Autowired protected CustomerRepository customerRepository;
+    @Autowired protected InvoiceRepository invoiceRepository;
+
+    private final List<Long> customerIds = new ArrayList<>();
+    private final List<Long> invoiceIds = new ArrayList<>();
+
+    @AfterEach
+    void deleteFixtures() {
+        invoiceRepository.deleteAllByIdInBatch(invoiceIds);
+        customerRepository.deleteAllByIdInBatch(customerIds);
+    }
+
+    protected Customer customer(String name, String email) {
+        Customer customer = new Customer();
+        customer.setName(name);
+        customer.setEmail(email);
+        return track(customerRepository.save(customer));
+    }
+
+    /** A customer saved some other way, e.g. through the service under test. */
+    protected Customer track(Customer customer) {
+        customerIds.add(customer.getId());
+        return customer;
+    }
+
+    protected Invoice invoice(Customer customer, String number) {
+        Invoice invoice = new Invoice();
+        invoice.setCustomer(customer);
+        invoice.setInvoiceNumber(number);
+        return invoice(invoice);
+    }
+
+    /** Saves an invoice the test put together itself, e.g. with items. */
+    protected Invoice invoice(Invoice invoice) {
+        Invoice saved = invoiceRepository.save(invoice);
+        invoiceIds.add(saved.getId());
+        return saved;
+    }
+}
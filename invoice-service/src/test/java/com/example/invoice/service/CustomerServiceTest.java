@@ -0,0 +1,144 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.Customer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.assertj.core.api.Assertions.*;
+
+@Import({CustomerService.class, SimpleMeterRegistry.class})
+class CustomerServiceTest extends CommittedDataTest {
+
+    @Autowired CustomerService customers;
+    @Autowired SimpleMeterRegistry registry;
+    @Autowired PlatformTransactionManager transactionManager;
+
+    private Customer customer;
+
+    @BeforeEach
+    void setUp() {
+        customer = new Customer();
+        customer.setName("Cache Co");
+        customer.setEmail("billing@cache.test");
+        customer = track(customers.create(customer));
+    }
+
+    @Test
+    void repeatedLookupsAreServedFromTheCache() {
+        Long id = customer.getId();
+        double hits = hits("customers");
+
+        assertThat(customers.get(id).getName()).isEqualTo("Cache Co");
+        assertThat(customers.findByEmail("billing@cache.test")).get().extracting(Customer::getId).isEqualTo(id);
+        assertThat(customers.findAll(List.of(id, -1L))).containsOnlyKeys(id);
+
+        assertThat(hits("customers") - hits).isEqualTo(3);
+        assertThat(hits("customer-emails")).isPositive();
+    }
+
+    @Test
+    void updatesAreWrittenThroughAndTheOldEmailIsForgotten() {
+        customers.get(customer.getId());
+        Customer changes = new Customer();
+        changes.setName("Cache Co Ltd");
+        changes.setEmail("accounts@cache.test");
+
+        customers.update(customer.getId(), changes, null);
+
+        assertThat(customers.get(customer.getId()).getName()).isEqualTo("Cache Co Ltd");
+        assertThat(customers.findByEmail("accounts@cache.test")).isPresent();
+        assertThat(customers.findByEmail("billing@cache.test")).isEmpty();
+    }
+
+    @Test
+    void deletesAreEvicted() {
+        customers.get(customer.getId());
+
+        customers.delete(customer.getId());
+
+        assertThat(customers.find(customer.getId())).isEmpty();
+        assertThat(customers.findByEmail("billing@cache.test")).isEmpty();
+        assertThatThrownBy(() -> customers.get(customer.getId())).isInstanceOf(NoSuchElementException.class);
+    }
+
+    @Test
+    void rolledBackUpdatesLeaveTheCacheAsItWas() {
+        customers.get(customer.getId());
+        Customer changes = new Customer();
+        changes.setName("Never Ltd");
+        changes.setEmail("never@cache.test");
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(tx -> {
+            customers.update(customer.getId(), changes, null);
+            tx.setRollbackOnly();
+        });
+
+        assertThat(customers.get(customer.getId()).getName()).isEqualTo("Cache Co");
+    }
+
+    @Test
+    void changesMadeOnAnotherNodeAreEvictedByThePoll() {
+        SimpleMeterRegistry otherRegistry = new SimpleMeterRegistry();
+        CustomerService otherNode = new CustomerService(customerRepository, otherRegistry, 100,
+                Duration.ofMinutes(10), Duration.ofMinutes(1), Duration.ofHours(1));
+        otherNode.pollChanges();
+        assertThat(otherNode.get(customer.getId()).getName()).isEqualTo("Cache Co");
+        Customer changes = new Customer();
+        changes.setName("Renamed Ltd");
+        changes.setEmail("billing@cache.test");
+
+        customers.update(customer.getId(), changes, null);
+        assertThat(otherNode.get(customer.getId()).getName()).as("until the next poll").isEqualTo("Cache Co");
+        otherNode.pollChanges();
+
+        assertThat(otherNode.get(customer.getId()).getName()).isEqualTo("Renamed Ltd");
+        double evicted = otherRegistry.counter("customer.cache.remote.evictions").count();
+        assertThat(evicted).isPositive();
+        otherNode.pollChanges();
+        assertThat(otherRegistry.counter("customer.cache.remote.evictions").count()).as("each change once").isEqualTo(evicted);
+    }
+
+    @Test
+    void updatesAtAnOlderVersionAreRejected() {
+        long version = customers.version(customer.getId());
+        Customer changes = new Customer();
+        changes.setName("First Ltd");
+        changes.setEmail("billing@cache.test");
+        customers.update(customer.getId(), changes, version);
+
+        changes.setName("Second Ltd");
+        assertThatThrownBy(() -> customers.update(customer.getId(), changes, version))
+                .isInstanceOf(OptimisticLockingFailureException.class);
+        assertThat(customers.get(customer.getId()).getName()).isEqualTo("First Ltd");
+        assertThat(customers.version(customer.getId())).isEqualTo(version + 1);
+    }
+
+    @Test
+    void aNewerVersionBypassesACopyNotYetPolled() {
+        CustomerService otherNode = new CustomerService(customerRepository, new SimpleMeterRegistry(), 100,
+                Duration.ofMinutes(10), Duration.ofMinutes(1), Duration.ofHours(1));
+        otherNode.get(customer.getId());
+        Customer changes = new Customer();
+        changes.setName("Renamed Ltd");
+        changes.setEmail("billing@cache.test");
+        customers.update(customer.getId(), changes, null);
+
+        long version = otherNode.version(customer.getId());
+
+        assertThat(otherNode.get(customer.getId(), version).getName()).isEqualTo("Renamed Ltd");
+    }
+
+    private double hits(String cache) {
+        return registry.get("cache.gets").tags("cache", cache, "result", "hit").functionCounter().count();
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.EmailOutboxMessage;
+import com.example.invoice.model.EmailStatus;
+import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceStatus;
+import com.example.invoice.repository.EmailOutboxRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.thymeleaf.ThymeleafAutoConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.oauth2.client.InMemoryOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+@Import({InvoiceService.class, InvoiceNumberGenerator.class, PdfService.class, PdfCache.class,
+        AttachmentStorageService.class, PdfRendererSetup.class, PdfRenderQueue.class, CustomerService.class,
+        SimpleMeterRegistry.class})
+@ImportAutoConfiguration(ThymeleafAutoConfiguration.class)
+class EmailOutboxDispatcherTest extends CommittedDataTest {
+
+    @Autowired InvoiceService invoiceService;
+    @Autowired PdfService pdfService;
+    @Autowired EmailOutboxRepository outboxRepository;
+    @Autowired PlatformTransactionManager transactionManager;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private FakeGmailServer gmail;
+    private InMemoryOAuth2AuthorizedClientService clients;
+    private GmailEmailService gmailService;
+    private Invoice invoice;
+    private final List<EmailOutboxDispatcher> dispatchers = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        gmail = new FakeGmailServer();
+        clients = new InMemoryOAuth2AuthorizedClientService(new InMemoryClientRegistrationRepository(registration()));
+        gmailService = new GmailEmailService(clients, registry, gmail.rootUrl(), 4, 100);
+        signIn("alice");
+        signIn("bob");
+        invoice = invoice(customer("Outbox Ltd", "billing@outbox.test"), "OUT-1");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        dispatchers.forEach(EmailOutboxDispatcher::shutdown);
+        // also removes the stored PDF snapshot
+        invoiceService.delete(invoice.getId());
+        gmailService.shutdown();
+        gmail.close();
+    }
+
+    @Test
+    void queuesWithTheFinalizedInvoiceAndDeliversInTheBackground() {
+        EmailOutboxMessage queued = invoiceService.sendByEmail(invoice.getId(), "alice", null);
+
+        assertThat(queued.getStatus()).isEqualTo(EmailStatus.PENDING);
+        assertThat(queued.getRecipient()).isEqualTo("billing@outbox.test");
+        assertThat(queued.getSubject()).isEqualTo("Invoice OUT-1");
+        assertThat(invoiceRepository.findById(invoice.getId()).orElseThrow().getStatus()).isEqualTo(InvoiceStatus.SENT);
+        assertThat(gmail.sent()).isZero();
+
+        assertThat(dispatcher(8, Duration.ofMinutes(1), 0).dispatch()).isEqualTo(1);
+
+        EmailOutboxMessage delivered = outboxRepository.findById(queued.getId()).orElseThrow();
+        assertThat(delivered.getStatus()).isEqualTo(EmailStatus.SENT);
+        assertThat(delivered.getAttempts()).isEqualTo(1);
+        assertThat(delivered.getSentAt()).isNotNull();
+        assertThat(gmail.sent()).isEqualTo(1);
+        String raw = gmail.lastBody().replaceAll(".*\"raw\"\\s*:\\s*\"([^\"]+)\".*", "$1");
+        assertThat(new String(Base64.getUrlDecoder().decode(raw), StandardCharsets.UTF_8))
+                .contains("To: billing@outbox.test", "multipart/mixed", "Content-Type: application/pdf", "filename=OUT-1.pdf");
+        assertThat(registry.counter("email.outbox.sent").count()).isEqualTo(1);
+        assertThat(registry.timer("email.outbox.delivery").count()).isEqualTo(1);
+    }
+
+    @Test
+    void rolledBackChangeQueuesNothing() {
+        new TransactionTemplate(transactionManager).executeWithoutResult(tx -> {
+            invoiceService.sendByEmail(invoice.getId(), "alice", new InvoiceService.EmailRequest(null, "Hello", "Hi"));
+            tx.setRollbackOnly();
+        });
+
+        assertThat(outboxRepository.findByInvoice_Id(invoice.getId())).isEmpty();
+        assertThat(invoiceRepository.findById(invoice.getId()).orElseThrow().getStatus()).isEqualTo(InvoiceStatus.DRAFT);
+    }
+
+    @Test
+    void transientFailuresBackOffExponentiallyUntilOutOfAttempts() {
+        Long id = invoiceService.sendByEmail(invoice.getId(), "alice", null).getId();
+        EmailOutboxDispatcher dispatcher = dispatcher(3, Duration.ofMinutes(1), 0);
+        gmail.failNext(5, 503);
+
+        Instant before = Instant.now();
+        dispatcher.dispatch();
+        EmailOutboxMessage retried = outboxRepository.findById(id).orElseThrow();
+        assertThat(retried.getStatus()).isEqualTo(EmailStatus.PENDING);
+        assertThat(retried.getAttempts()).isEqualTo(1);
+        assertThat(retried.getLastError()).contains("503");
+        assertThat(retried.getNextAttemptAt()).isBetween(before.plusSeconds(47), Instant.now().plusSeconds(73));
+        assertThat(dispatcher.dispatch()).as("not due yet").isZero();
+
+        makeDue(id);
+        before = Instant.now();
+        dispatcher.dispatch();
+        assertThat(outboxRepository.findById(id).orElseThrow().getNextAttemptAt())
+                .isBetween(before.plusSeconds(95), Instant.now().plusSeconds(145));
+
+        makeDue(id);
+        dispatcher.dispatch();
+        EmailOutboxMessage dead = outboxRepository.findById(id).orElseThrow();
+        assertThat(dead.getStatus()).isEqualTo(EmailStatus.DEAD);
+        assertThat(dead.getAttempts()).isEqualTo(3);
+        assertThat(gmail.sent()).isZero();
+        assertThat(registry.counter("email.outbox.retries").count()).isEqualTo(2);
+        assertThat(registry.counter("email.outbox.dead").count()).isEqualTo(1);
+    }
+
+    @Test
+    void rejectedMessagesAreNotRetried() {
+        Long id = invoiceService.sendByEmail(invoice.getId(), "alice", null).getId();
+        gmail.failNext(1, 400);
+
+        dispatcher(8, Duration.ofMinutes(1), 0).dispatch();
+
+        EmailOutboxMessage dead = outboxRepository.findById(id).orElseThrow();
+        assertThat(dead.getStatus()).isEqualTo(EmailStatus.DEAD);
+        assertThat(dead.getAttempts()).isEqualTo(1);
+    }
+
+    @Test
+    void eachUserIsThrottledWithoutHoldingUpOthers() {
+        for (int n = 0; n < 4; n++) invoiceService.sendByEmail(invoice.getId(), "alice", null);
+        invoiceService.sendByEmail(invoice.getId(), "bob", null);
+        EmailOutboxDispatcher dispatcher = dispatcher(8, Duration.ofMinutes(1), 1);
+
+        Instant before = Instant.now();
+        assertThat(dispatcher.dispatch()).isEqualTo(3);
+
+        List<EmailOutboxMessage> deferred = outboxRepository.findByInvoice_Id(invoice.getId()).stream()
+                .filter(m -> m.getStatus() == EmailStatus.PENDING)
+                .sorted((a, b) -> a.getNextAttemptAt().compareTo(b.getNextAttemptAt()))
+                .toList();
+        assertThat(deferred).hasSize(2).allMatch(m -> m.getPrincipalName().equals("alice") && m.getAttempts() == 0);
+        // queued one behind the other at one send a second
+        assertThat(deferred.get(0).getNextAttemptAt()).isAfter(before);
+        assertThat(Duration.between(deferred.get(0).getNextAttemptAt(), deferred.get(1).getNextAttemptAt()))
+                .isBetween(Duration.ofMillis(900), Duration.ofMillis(1100));
+        assertThat(registry.counter("email.outbox.throttled").count()).isEqualTo(2);
+        assertThat(registry.get("email.outbox.pending").gauge().value()).isEqualTo(2);
+        assertThat(registry.get("email.outbox.oldest.age").gauge().value()).isGreaterThanOrEqualTo(0);
+    }
+
+    /** Two-token bursts at {@code perUserRate} a second, or no throttling when it is 0. */
+    private EmailOutboxDispatcher dispatcher(int maxAttempts, Duration initialBackoff, double perUserRate) {
+        EmailOutboxDispatcher dispatcher = new EmailOutboxDispatcher(outboxRepository, gmailService, pdfService, registry,
+                50, 2, 2, maxAttempts, initialBackoff, Duration.ofHours(1), Duration.ofMinutes(5), perUserRate, 2);
+        dispatchers.add(dispatcher);
+        return dispatcher;
+    }
+
+    private void makeDue(Long id) {
+        EmailOutboxMessage message = outboxRepository.findById(id).orElseThrow();
+        message.setNextAttemptAt(Instant.now().minusSeconds(1));
+        outboxRepository.save(message);
+    }
+
+    private void signIn(String principal) {
+        Instant now = Instant.now();
+        OAuth2AccessToken token = new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, "token-" + principal,
+                now, now.plus(Duration.ofHours(1)));
+        clients.saveAuthorizedClient(new OAuth2AuthorizedClient(registration(), principal, token),
+                new TestingAuthenticationToken(principal, null));
+    }
+
+    private static ClientRegistration registration() {
+        return ClientRegistration.withRegistrationId("google")
+                .clientId("client")
+                .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+                .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+                .authorizationUri("https://accounts.example.test/auth")
+                .tokenUri("https://accounts.example.test/token")
+                .build();
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.invoice.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Local stand-in for {@code messages.send} of the Gmail API, for tests and benchmarks that should not touch
+ * the network. Point {@code app.gmail.root-url} at {@link #rootUrl()}. Answers every send with a message id
+ * and remembers what it received;
+ * {@link #failNext} makes the next sends fail instead.
+ */
+class FakeGmailServer implements AutoCloseable {
+    static final String SEND_PATH = "/gmail/v1/users/me/messages/send";
+
+    static {
+        // without it small responses wait out the client's delayed ACK, ~40 ms per send
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final AtomicInteger sent = new AtomicInteger();
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private volatile String lastAuthorization;
+    private volatile String lastBody;
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile int failureStatus;
+
+    FakeGmailServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(SEND_PATH, this::send);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+    }
+
+    String rootUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    int sent() {
+        return sent.get();
+    }
+
+    /** Distinct client connections seen; stays at one per concurrent sender when connections are reused. */
+    int connections() {
+        return clientPorts.size();
+    }
+
+    /** Answers the next {@code count} sends with {@code status} and a Google error body. */
+    void failNext(int count, int status) {
+        failureStatus = status;
+        failures.set(count);
+    }
+
+    String lastAuthorization() {
+        return lastAuthorization;
+    }
+
+    String lastBody() {
+        return lastBody;
+    }
+
+    private void send(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            InputStream body = exchange.getRequestBody();
+            // the Google client gzips request bodies
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) body = new GZIPInputStream(body);
+            lastBody = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+            lastAuthorization = exchange.getRequestHeaders().getFirst("Authorization");
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            if (failures.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                respond(exchange, failureStatus, "{\"error\":{\"code\":" + failureStatus + ",\"message\":\"injected\"}}");
+                return;
+            }
+            int n = sent.incrementAndGet();
+            respond(exchange, 200, "{\"id\":\"m" + n + "\",\"threadId\":\"t" + n + "\",\"labelIds\":[\"SENT\"]}");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] response = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, response.length);
+        exchange.getResponseBody().write(response);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
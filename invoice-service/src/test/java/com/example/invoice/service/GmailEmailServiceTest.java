@@ -0,0 +1,118 @@
+package com.example.invoice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.oauth2.client.InMemoryOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+class GmailEmailServiceTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private FakeGmailServer gmail;
+    private InMemoryOAuth2AuthorizedClientService clients;
+    private GmailEmailService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        gmail = new FakeGmailServer();
+        clients = new InMemoryOAuth2AuthorizedClientService(new InMemoryClientRegistrationRepository(registration()));
+        service = new GmailEmailService(clients, registry, gmail.rootUrl(), 4, 100);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        service.shutdown();
+        gmail.close();
+    }
+
+    @Test
+    void sendsTheMessageWithTheUsersToken() throws Exception {
+        signIn("alice", "token-1");
+
+        service.sendEmail("alice", "billing@example.test", "Invoice INV-1", "Please find your invoice.");
+
+        assertThat(gmail.sent()).isEqualTo(1);
+        assertThat(gmail.lastAuthorization()).isEqualTo("Bearer token-1");
+        String raw = gmail.lastBody().replaceAll(".*\"raw\"\\s*:\\s*\"([^\"]+)\".*", "$1");
+        assertThat(new String(Base64.getUrlDecoder().decode(raw), StandardCharsets.UTF_8))
+                .contains("To: billing@example.test", "Subject: Invoice INV-1", "Please find your invoice.");
+        assertThat(registry.timer("gmail.send").count()).isEqualTo(1);
+    }
+
+    @Test
+    void attachmentsMakeAMultipartMessage() throws Exception {
+        signIn("alice", "token-1");
+        byte[] pdf = {(byte) 0xE2, (byte) 0xE3, (byte) 0xCF, (byte) 0xD3, 0, 1, 2, 3};  // binary, so sent as base64
+
+        service.sendEmail("alice", "billing@example.test", "Invoice INV-1", "Attached.",
+                List.of(new GmailEmailService.Attachment("INV-1.pdf", "application/pdf", pdf)));
+
+        String raw = gmail.lastBody().replaceAll(".*\"raw\"\\s*:\\s*\"([^\"]+)\".*", "$1");
+        assertThat(new String(Base64.getUrlDecoder().decode(raw), StandardCharsets.UTF_8))
+                .contains("multipart/mixed", "Attached.", "Content-Type: application/pdf", "filename=INV-1.pdf",
+                        Base64.getMimeEncoder().encodeToString(pdf));
+    }
+
+    @Test
+    void clientAndConnectionAreReusedAcrossSends() throws Exception {
+        signIn("alice", "token-1");
+
+        for (int n = 0; n < 10; n++) service.sendEmail("alice", "a@example.test", "s", "b");
+
+        assertThat(service.client("alice")).isSameAs(service.client("alice"));
+        assertThat(gmail.sent()).isEqualTo(10);
+        assertThat(gmail.connections()).isEqualTo(1);
+    }
+
+    @Test
+    void rotatedTokenReplacesTheCachedClient() throws Exception {
+        signIn("alice", "token-1");
+        Object before = service.client("alice");
+
+        signIn("alice", "token-2");
+        service.sendEmail("alice", "a@example.test", "s", "b");
+
+        assertThat(service.client("alice")).isNotSameAs(before);
+        assertThat(gmail.lastAuthorization()).isEqualTo("Bearer token-2");
+    }
+
+    @Test
+    void usersWithoutAGoogleLoginCannotSend() {
+        assertThatThrownBy(() -> service.sendEmail("bob", "a@example.test", "s", "b"))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(gmail.sent()).isZero();
+    }
+
+    private void signIn(String principal, String tokenValue) {
+        Instant now = Instant.now();
+        OAuth2AccessToken token = new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, tokenValue,
+                now, now.plus(Duration.ofHours(1)));
+        clients.saveAuthorizedClient(new OAuth2AuthorizedClient(registration(), principal, token),
+                new TestingAuthenticationToken(principal, null));
+    }
+
+    private static ClientRegistration registration() {
+        return ClientRegistration.withRegistrationId("google")
+                .clientId("client")
+                .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+                .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+                .authorizationUri("https://accounts.example.test/auth")
+                .tokenUri("https://accounts.example.test/token")
+                .build();
+    }
+}
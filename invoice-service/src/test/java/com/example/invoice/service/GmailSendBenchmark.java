@@ -0,0 +1,87 @@
+package com.example.invoice.service;
+
+import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.gmail.Gmail;
+import com.google.api.services.gmail.model.Message;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.oauth2.client.InMemoryOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Send latency against {@link FakeGmailServer}: the shared transport and cached client versus a transport
+ * and client built per send, as the service used to. Plain HTTP, so the TLS handshake a real connection
+ * would add on every uncached send is not even counted. Run with {@code ./gradlew benchmark}; it is
+ * excluded from the regular test task.
+ */
+@Tag("benchmark")
+class GmailSendBenchmark {
+    private static final int SENDS = 2000;
+
+    @Test
+    void sendLatency() throws Exception {
+        ClientRegistration registration = ClientRegistration.withRegistrationId("google")
+                .clientId("client")
+                .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+                .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+                .authorizationUri("https://accounts.example.test/auth")
+                .tokenUri("https://accounts.example.test/token")
+                .build();
+        InMemoryOAuth2AuthorizedClientService clients =
+                new InMemoryOAuth2AuthorizedClientService(new InMemoryClientRegistrationRepository(registration));
+        Instant now = Instant.now();
+        clients.saveAuthorizedClient(new OAuth2AuthorizedClient(registration, "bench",
+                        new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, "t", now, now.plus(Duration.ofHours(1)))),
+                new TestingAuthenticationToken("bench", null));
+
+        try (FakeGmailServer gmail = new FakeGmailServer()) {
+            GmailEmailService service = new GmailEmailService(clients, new SimpleMeterRegistry(), gmail.rootUrl(), 20, 100);
+            for (int n = 0; n < SENDS / 10; n++) service.sendEmail("bench", "a@example.test", "s", "b");  // warm up
+            long start = System.nanoTime();
+            for (int n = 0; n < SENDS; n++) service.sendEmail("bench", "a@example.test", "s", "b");
+            report("pooled, cached client", System.nanoTime() - start);
+
+            Message message = new Message().setRaw(Base64.getUrlEncoder().encodeToString("To: a@example.test\r\n\r\nb".getBytes()));
+            HttpRequestInitializer auth = request -> request.getHeaders().setAuthorization("Bearer t");
+            start = System.nanoTime();
+            for (int n = 0; n < SENDS; n++) {
+                new Gmail.Builder(GoogleNetHttpTransport.newTrustedTransport(), GsonFactory.getDefaultInstance(), auth)
+                        .setRootUrl(gmail.rootUrl()).setApplicationName("Invoice Service").build()
+                        .users().messages().send("me", message).execute();
+            }
+            report("new transport per send", System.nanoTime() - start);
+            assertThat(gmail.sent()).isEqualTo(SENDS * 2 + SENDS / 10);
+
+            // what each send used to pay before any bytes went out, next to a cache hit
+            start = System.nanoTime();
+            for (int n = 0; n < SENDS; n++) {
+                new Gmail.Builder(GoogleNetHttpTransport.newTrustedTransport(), GsonFactory.getDefaultInstance(), auth)
+                        .setRootUrl(gmail.rootUrl()).setApplicationName("Invoice Service").build();
+            }
+            report("client setup only", System.nanoTime() - start);
+            start = System.nanoTime();
+            for (int n = 0; n < SENDS; n++) service.client("bench");
+            report("cached client lookup", System.nanoTime() - start);
+            service.shutdown();
+        }
+    }
+
+    private static void report(String mode, long nanos) {
+        System.out.printf("gmail send (%s): %d in %.1f ms, %.0f/s, %.3f ms each%n",
+                mode, SENDS, nanos / 1e6, SENDS / (nanos / 1e9), nanos / 1e6 / SENDS);
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.invoice.service;
+
+import com.example.invoice.controller.AttachmentController;
+import com.example.invoice.model.Customer;
+import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceItem;
+import com.example.invoice.model.InvoiceRevision;
+import com.example.invoice.model.InvoiceVersion;
+import com.example.invoice.model.Payment;
+import com.example.invoice.repository.InvoiceAttachmentRepository;
+import com.example.invoice.repository.InvoiceRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.Hibernate;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.thymeleaf.ThymeleafAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Pins the number of SQL statements each invoice endpoint issues, so a fetch plan regression
+ * (an EAGER collection, an N+1 loop) fails here instead of in production.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+@Import({InvoiceService.class, InvoiceNumberGenerator.class, PdfService.class, PdfCache.class,
+        AttachmentStorageService.class, PdfRendererSetup.class, PdfRenderQueue.class, CustomerService.class,
+        SimpleMeterRegistry.class})
+@ImportAutoConfiguration(ThymeleafAutoConfiguration.class)
+class InvoiceFetchPlanTest {
+
+    @Autowired EntityManager em;
+    @Autowired EntityManagerFactory emf;
+    @Autowired InvoiceService invoiceService;
+    @Autowired PdfService pdfService;
+    @Autowired InvoiceRepository invoiceRepository;
+    @Autowired InvoiceAttachmentRepository attachmentRepository;
+
+    private Statistics stats;
+    private Long invoiceId;
+
+    @BeforeEach
+    void setUp() {
+        stats = emf.unwrap(SessionFactory.class).getStatistics();
+        Customer customer = new Customer();
+        customer.setName("Acme");
+        customer.setEmail("billing@acme.test");
+        em.persist(customer);
+        for (int n = 0; n < 3; n++) {
+            Invoice invoice = new Invoice();
+            invoice.setCustomer(customer);
+            invoice.setInvoiceNumber("FP-" + n);
+            for (int l = 0; l < 4; l++) {
+                InvoiceItem item = new InvoiceItem();
+                item.setInvoice(invoice);
+                item.setDescription("Line " + l);
+                item.setQuantity(BigDecimal.ONE);
+                item.setUnitPrice(new BigDecimal("10.00"));
+                item.setTaxRate(new BigDecimal("10.00"));
+                invoice.getItems().add(item);
+            }
+            Payment payment = new Payment();
+            payment.setInvoice(invoice);
+            payment.setAmount(new BigDecimal("5.00"));
+            invoice.getPayments().add(payment);
+            em.persist(invoice);
+            invoiceId = invoice.getId();
+        }
+        em.flush();
+        em.clear();
+        stats.clear();
+    }
+
+    @Test
+    void listSummariesIsOneStatement() {
+        var page = invoiceService.listSummaries(PageRequest.of(0, 20));
+
+        assertThat(page.getContent()).hasSize(3);
+        assertThat(stats.getPrepareStatementCount()).isEqualTo(1);
+    }
+
+    @Test
+    void expandedListBatchFetchesRequestedCollectionsOnly() {
+        var page = invoiceService.list(PageRequest.of(0, 20), Set.of("items"));
+
+        assertThat(page.getContent()).allMatch(inv -> inv.getItems().size() == 4);
+        assertThat(page.getContent()).noneMatch(inv -> Hibernate.isInitialized(inv.getPayments()));
+        assertThat(stats.getPrepareStatementCount()).isEqualTo(2);
+    }
+
+    @Test
+    void getLoadsItemsAndPaymentsInTwoStatements() {
+        Invoice invoice = invoiceService.get(invoiceId);
+
+        assertThat(invoice.getItems()).hasSize(4);
+        assertThat(invoice.getPayments()).hasSize(1);
+        assertThat(Hibernate.isInitialized(invoice.getAttachments())).isFalse();
+        assertThat(stats.getPrepareStatementCount()).isEqualTo(2);
+    }
+
+    @Test
+    void addPaymentDoesNotLoadItems() {
+        Payment payment = new Payment();
+        payment.setAmount(new BigDecimal("1.00"));
+
+        invoiceService.addPayment(invoiceId, payment);
+        em.flush();
+
+        // select invoice+payments, insert payment, update invoice totals (+ a sequence block fetch, at most once per 50 ids)
+        assertThat(stats.getPrepareStatementCount()).isBetween(3L, 4L);
+        assertThat(stats.getCollectionFetchCount()).isZero();
+    }
+
+    @Test
+    void pdfRenderLoadsInvoiceItemsAndCustomerInOneStatement() {
+        byte[] pdf = pdfService.renderInvoicePdf(invoiceId);
+
+        assertThat(pdf).isNotEmpty();
+        assertThat(stats.getPrepareStatementCount()).isEqualTo(1);
+    }
+
+    @Test
+    void cachedPdfRevalidatesWithOneVersionQuery() {
+        byte[] first = pdfService.cachedInvoicePdf(pdfService.version(invoiceId));
+        em.clear();
+        stats.clear();
+
+        InvoiceVersion version = pdfService.version(invoiceId);
+        byte[] second = pdfService.cachedInvoicePdf(version);
+
+        assertThat(second).isSameAs(first);
+        assertThat(version.invoiceNumber()).isEqualTo("FP-2");
+        assertThat(stats.getPrepareStatementCount()).isEqualTo(1);
+    }
+
+    @Test
+    void paymentChangesPdfVersion() {
+        InvoiceVersion before = pdfService.version(invoiceId);
+        Payment payment = new Payment();
+        payment.setAmount(new BigDecimal("1.00"));
+
+        invoiceService.addPayment(invoiceId, payment);
+        em.flush();
+        em.clear();
+
+        assertThat(pdfService.version(invoiceId).modifiedAt()).isAfter(before.modifiedAt());
+    }
+
+    @Test
+    void revisionIsOneStatementAndMovesWithPayments() {
+        InvoiceRevision before = invoiceService.revision(invoiceId);
+        assertThat(stats.getPrepareStatementCount()).isEqualTo(1);
+        Payment payment = new Payment();
+        payment.setAmount(new BigDecimal("1.00"));
+
+        invoiceService.addPayment(invoiceId, payment);
+        em.flush();
+        em.clear();
+
+        InvoiceRevision after = invoiceService.revision(invoiceId);
+        assertThat(after.version()).isEqualTo(before.version() + 1);
+        assertThat(after.etag()).isNotEqualTo(before.etag());
+    }
+
+    @Test
+    void updateAtAnOlderVersionIsRejected() {
+        long version = invoiceService.revision(invoiceId).version();
+
+        assertThatThrownBy(() -> invoiceService.update(invoiceId, new Invoice(), version - 1))
+                .isInstanceOf(OptimisticLockingFailureException.class);
+    }
+
+    @Test
+    void uploadOnlyChecksInvoiceExists(@TempDir Path uploads) throws Exception {
+        AttachmentStorageService storage = new AttachmentStorageService(uploads.toString(), "");
+        AttachmentController controller = new AttachmentController(attachmentRepository,
+                new AttachmentService(invoiceRepository, attachmentRepository, storage,
+                        new ThumbnailService(storage, new SimpleMeterRegistry(), 1, 1, 256), Duration.ZERO), null, storage, null);
+        MockMultipartFile file = new MockMultipartFile("file", "note.txt", "text/plain", "hello".getBytes());
+
+        controller.upload(invoiceId, file);
+        em.flush();
+
+        // exists check, insert attachment (+ a sequence block fetch, at most once per 50 ids)
+        assertThat(stats.getPrepareStatementCount()).isBetween(2L, 3L);
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.invoice.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.*;
+
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class InvoiceNumberGeneratorTest {
+    private static final LocalDate ISSUED = LocalDate.of(2025, 3, 1);
+
+    @Autowired JdbcTemplate jdbc;
+    @Autowired PlatformTransactionManager transactionManager;
+
+    private InvoiceNumberGenerator node(String prefix, boolean perYear) {
+        return new InvoiceNumberGenerator(jdbc, transactionManager, prefix, perYear, 10);
+    }
+
+    @Test
+    void shouldHandOutDisjointNumbersAcrossNodes() {
+        InvoiceNumberGenerator a = node("NODE", false);
+        InvoiceNumberGenerator b = node("NODE", false);
+        Set<String> issued = new HashSet<>();
+
+        for (int n = 0; n < 25; n++) {
+            assertThat(issued.add(a.nextNumber(ISSUED))).isTrue();
+            assertThat(issued.add(b.nextNumber(ISSUED))).isTrue();
+        }
+
+        assertThat(issued).hasSize(50).allMatch(number -> number.matches("NODE\\d{8}"));
+    }
+
+    @Test
+    void shouldHandOutDistinctNumbersToConcurrentCallers() throws Exception {
+        InvoiceNumberGenerator generator = node("CONC", false);
+        Set<String> issued = ConcurrentHashMap.newKeySet();
+        List<Callable<Void>> callers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            callers.add(() -> {
+                for (int n = 0; n < 100; n++) issued.add(generator.nextNumber(ISSUED));
+                return null;
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            for (Future<Void> done : pool.invokeAll(callers)) done.get();
+        } finally {
+            pool.shutdown();
+        }
+
+        assertThat(issued).hasSize(800);
+    }
+
+    @Test
+    void shouldContinueAfterRestartSkippingOnlyTheUnusedTail() {
+        InvoiceNumberGenerator first = node("RESTART", false);
+        assertThat(first.nextNumber(ISSUED)).isEqualTo("RESTART00000001");
+        assertThat(first.nextNumber(ISSUED)).isEqualTo("RESTART00000002");
+
+        InvoiceNumberGenerator restarted = node("RESTART", false);
+
+        assertThat(restarted.nextNumber(ISSUED)).isEqualTo("RESTART00000011");
+    }
+
+    @Test
+    void shouldKeepSeparateSeriesPerYear() {
+        InvoiceNumberGenerator generator = node("Y", true);
+
+        assertThat(generator.nextNumber(ISSUED)).isEqualTo("Y2025-00000001");
+        assertThat(generator.nextNumber(ISSUED.plusYears(1))).isEqualTo("Y2026-00000001");
+        assertThat(generator.nextNumber(ISSUED)).isEqualTo("Y2025-00000002");
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.Customer;
+import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceItem;
+import com.example.invoice.model.InvoiceSearchCriteria;
+import com.example.invoice.model.InvoiceVersion;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.thymeleaf.ThymeleafAutoConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.*;
+
+@TestPropertySource(properties = "app.pdf.archive-concurrency=2")
+@Import({PdfArchiveService.class, PdfService.class, PdfCache.class, AttachmentStorageService.class,
+        PdfRendererSetup.class, PdfRenderQueue.class, SimpleMeterRegistry.class})
+@ImportAutoConfiguration(ThymeleafAutoConfiguration.class)
+class PdfArchiveServiceTest extends CommittedDataTest {
+
+    @Autowired PdfArchiveService archiveService;
+
+    private final List<Long> ids = new ArrayList<>();
+    private Customer customer;
+
+    @BeforeEach
+    void setUp() {
+        customer = customer("Archive Co", "archive@example.test");
+        for (int n = 0; n < 5; n++) {
+            Invoice invoice = new Invoice();
+            invoice.setCustomer(customer);
+            invoice.setInvoiceNumber("ZIP-" + n);
+            InvoiceItem item = new InvoiceItem();
+            item.setInvoice(invoice);
+            item.setDescription("Line");
+            item.setQuantity(BigDecimal.ONE);
+            item.setUnitPrice(new BigDecimal("10.00"));
+            item.setTaxRate(BigDecimal.ZERO);
+            invoice.getItems().add(item);
+            ids.add(invoice(invoice).getId());
+        }
+    }
+
+    @Test
+    void shouldZipOnePdfPerInvoice() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        archiveService.writeZip(archiveService.resolve(ids), out);
+
+        Map<String, byte[]> entries = unzip(out.toByteArray());
+        assertThat(entries).containsOnlyKeys("ZIP-0.pdf", "ZIP-1.pdf", "ZIP-2.pdf", "ZIP-3.pdf", "ZIP-4.pdf");
+        assertThat(entries.values()).allSatisfy(pdf -> assertThat(new String(pdf, 0, 5)).isEqualTo("%PDF-"));
+    }
+
+    @Test
+    void shouldNumberInvoiceNumbersThatSanitizeToTheSameName() throws Exception {
+        Invoice slash = invoice(customer, "SAME/1");
+        Invoice colon = invoice(customer, "SAME:1");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        archiveService.writeZip(archiveService.resolve(List.of(slash.getId(), colon.getId())), out);
+
+        assertThat(unzip(out.toByteArray())).containsOnlyKeys("SAME_1.pdf", "SAME_1 (2).pdf");
+    }
+
+    @Test
+    void shouldResolveIdsInRequestOrder() {
+        List<Long> requested = List.of(ids.get(3), ids.get(0), ids.get(4), ids.get(0));
+
+        List<InvoiceVersion> versions = archiveService.resolve(requested);
+
+        assertThat(versions).extracting(InvoiceVersion::id).containsExactly(ids.get(3), ids.get(0), ids.get(4));
+    }
+
+    @Test
+    void shouldSelectInvoicesByFilter() {
+        InvoiceSearchCriteria criteria = new InvoiceSearchCriteria(customer.getId(), null, null, null, null, null,
+                null, null, null, null, null, null);
+
+        List<InvoiceVersion> versions = archiveService.resolve(criteria);
+
+        assertThat(versions).extracting(InvoiceVersion::id).containsExactlyElementsOf(ids);
+    }
+
+    @Test
+    void shouldRejectUnknownIdsBeforeStreaming() {
+        assertThatThrownBy(() -> archiveService.resolve(List.of(ids.get(0), -1L)))
+                .isInstanceOf(NoSuchElementException.class)
+                .hasMessageContaining("-1");
+    }
+
+    private static Map<String, byte[]> unzip(byte[] zip) throws Exception {
+        Map<String, byte[]> entries = new HashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            for (ZipEntry e; (e = in.getNextEntry()) != null; ) entries.put(e.getName(), in.readAllBytes());
+        }
+        return entries;
+    }
+}
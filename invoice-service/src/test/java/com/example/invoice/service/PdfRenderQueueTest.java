@@ -0,0 +1,54 @@
+package com.example.invoice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+class PdfRenderQueueTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final PdfRenderQueue queue = new PdfRenderQueue(registry, 1, 1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        queue.shutdown();
+    }
+
+    @Test
+    void shouldRejectOnceWorkerAndQueueAreFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<String> running = queue.submit(() -> {
+            started.countDown();
+            await(release);
+            return "first";
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<String> waiting = queue.submit(() -> "second");
+
+        assertThatThrownBy(() -> queue.submit(() -> "third")).isInstanceOf(RejectedExecutionException.class);
+        assertThat(queue.queued()).isEqualTo(1);
+        assertThat(registry.get("pdf.render.rejected").counter().count()).isEqualTo(1.0);
+        assertThat(registry.get("executor.queued").tag("name", PdfRenderQueue.NAME).gauge().value()).isEqualTo(1.0);
+
+        release.countDown();
+        assertThat(running.get(5, TimeUnit.SECONDS)).isEqualTo("first");
+        assertThat(waiting.get(5, TimeUnit.SECONDS)).isEqualTo("second");
+        assertThat(registry.get("executor").tag("name", PdfRenderQueue.NAME).timer().count()).isEqualTo(2);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
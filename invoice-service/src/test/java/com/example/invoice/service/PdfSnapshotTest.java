@@ -0,0 +1,108 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceItem;
+import com.example.invoice.model.InvoiceVersion;
+import com.example.invoice.model.Payment;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.thymeleaf.ThymeleafAutoConfiguration;
+import org.springframework.context.annotation.Import;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.*;
+
+@Import({InvoiceService.class, InvoiceNumberGenerator.class, PdfService.class, PdfCache.class,
+        AttachmentStorageService.class, PdfRendererSetup.class, PdfRenderQueue.class, CustomerService.class,
+        SimpleMeterRegistry.class})
+@ImportAutoConfiguration(ThymeleafAutoConfiguration.class)
+class PdfSnapshotTest extends CommittedDataTest {
+
+    @Autowired InvoiceService invoiceService;
+    @Autowired PdfService pdfService;
+
+    private Long invoiceId;
+
+    @BeforeEach
+    void setUp() {
+        Invoice invoice = new Invoice();
+        invoice.setCustomer(customer("Snapshot Ltd", "snapshot@example.test"));
+        invoice.setInvoiceNumber("SNAP-1");
+        InvoiceItem item = new InvoiceItem();
+        item.setInvoice(invoice);
+        item.setDescription("Consulting");
+        item.setQuantity(BigDecimal.ONE);
+        item.setUnitPrice(new BigDecimal("100.00"));
+        item.setTaxRate(BigDecimal.ZERO);
+        invoice.getItems().add(item);
+        invoice.setTotal(new BigDecimal("100.00"));
+        invoiceId = invoice(invoice).getId();
+    }
+
+    @AfterEach
+    void tearDown() {
+        invoiceService.delete(invoiceId);  // also removes the stored PDF snapshot
+    }
+
+    @Test
+    void draftHasNoSnapshot() {
+        InvoiceVersion version = pdfService.version(invoiceId);
+
+        assertThat(version.pdfSnapshotSha256()).isNull();
+        assertThat(version.etag()).startsWith("W/");
+    }
+
+    @Test
+    void finalizeStoresContentAddressedSnapshotAfterCommit() throws Exception {
+        invoiceService.finalizeInvoice(invoiceId);
+
+        InvoiceVersion version = awaitSnapshot();
+
+        assertThat(version.pdfSnapshotSha256()).matches("[0-9a-f]{64}");
+        assertThat(version.etag()).isEqualTo("\"" + version.pdfSnapshotSha256() + "\"");
+        byte[] stored = Files.readAllBytes(pdfService.snapshotPath(version));
+        assertThat(new String(stored, 0, 5)).isEqualTo("%PDF-");
+        assertThat(pdfService.cachedInvoicePdf(version)).isEqualTo(stored);
+    }
+
+    @Test
+    void paymentMakesSnapshotStaleAndNextDownloadStoresANewOne() {
+        invoiceService.finalizeInvoice(invoiceId);
+        String original = awaitSnapshot().pdfSnapshotSha256();
+        Payment payment = new Payment();
+        payment.setAmount(new BigDecimal("40.00"));
+
+        invoiceService.addPayment(invoiceId, payment);
+        InvoiceVersion stale = pdfService.version(invoiceId);
+        assertThat(stale.pdfSnapshotSha256()).isNull();
+
+        pdfService.cachedInvoicePdf(stale);
+
+        String refreshed = pdfService.version(invoiceId).pdfSnapshotSha256();
+        assertThat(refreshed).isNotNull().isNotEqualTo(original);
+    }
+
+    /** The render runs on the render queue once finalize has committed. */
+    private InvoiceVersion awaitSnapshot() {
+        long deadline = System.nanoTime() + Duration.ofSeconds(20).toNanos();
+        InvoiceVersion version = pdfService.version(invoiceId);
+        while (version.pdfSnapshotSha256() == null && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            version = pdfService.version(invoiceId);
+        }
+        assertThat(version.pdfSnapshotSha256()).as("snapshot stored").isNotNull();
+        return version;
+    }
+}
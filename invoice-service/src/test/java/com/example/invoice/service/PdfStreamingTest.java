@@ -0,0 +1,83 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.Customer;
+import com.example.invoice.model.Invoice;
+import com.example.invoice.model.InvoiceItem;
+import com.example.invoice.model.InvoiceVersion;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.thymeleaf.ThymeleafAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.*;
+
+/** A cache limit of 1 KB keeps a one-page PDF out of the cache, which is how a large invoice behaves. */
+@DataJpaTest(properties = "app.pdf-cache.max-entry-bytes=1024")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+@Import({PdfService.class, PdfCache.class, AttachmentStorageService.class, PdfRendererSetup.class,
+        PdfRenderQueue.class, SimpleMeterRegistry.class})
+@ImportAutoConfiguration(ThymeleafAutoConfiguration.class)
+class PdfStreamingTest {
+
+    @Autowired EntityManager em;
+    @Autowired PdfService pdfService;
+
+    private Long invoiceId;
+
+    @BeforeEach
+    void setUp() {
+        Customer customer = new Customer();
+        customer.setName("Streaming Ltd");
+        customer.setEmail("streaming@example.test");
+        em.persist(customer);
+        Invoice invoice = new Invoice();
+        invoice.setCustomer(customer);
+        invoice.setInvoiceNumber("STREAM-1");
+        InvoiceItem item = new InvoiceItem();
+        item.setInvoice(invoice);
+        item.setDescription("Consulting");
+        item.setQuantity(BigDecimal.ONE);
+        item.setUnitPrice(new BigDecimal("100.00"));
+        item.setTaxRate(BigDecimal.ZERO);
+        invoice.getItems().add(item);
+        invoice.setTotal(new BigDecimal("100.00"));
+        em.persist(invoice);
+        invoiceId = invoice.getId();
+        em.flush();
+        em.clear();
+    }
+
+    @Test
+    void oversizedPdfIsStreamedButNotCached() {
+        InvoiceVersion version = pdfService.version(invoiceId);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        pdfService.writeInvoicePdf(version, out);
+
+        assertThat(out.size()).isGreaterThan(1024);
+        assertThat(new String(out.toByteArray(), 0, 5, StandardCharsets.US_ASCII)).isEqualTo("%PDF-");
+        assertThat(pdfService.cachedOnly(version)).isNull();
+    }
+
+    @Test
+    void streamedPdfMatchesBufferedRender() {
+        InvoiceVersion version = pdfService.version(invoiceId);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        pdfService.writeInvoicePdf(version, out);
+
+        assertThat(out.size()).isEqualTo(pdfService.renderInvoicePdf(invoiceId).length);
+    }
+}
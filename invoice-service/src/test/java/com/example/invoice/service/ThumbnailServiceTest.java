@@ -0,0 +1,96 @@
+package com.example.invoice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ThumbnailServiceTest {
+
+    @TempDir Path uploads;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private AttachmentStorageService storage;
+    private ThumbnailService thumbnails;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        storage = new AttachmentStorageService(uploads.toString(), "application/pdf");
+        thumbnails = new ThumbnailService(storage, registry, 1, 10, 256);
+    }
+
+    @AfterEach
+    void tearDown() {
+        thumbnails.shutdown();
+    }
+
+    @Test
+    void imageIsScaledToFitTheBox() throws Exception {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(2000, 1000, BufferedImage.TYPE_INT_RGB), "png", png);
+        AttachmentStorageService.StoredBlob blob = storage.save(new ByteArrayInputStream(png.toByteArray()), "image/png");
+        String key = blob.key();
+
+        thumbnails.generate(key, blob.encoding(), "image/png");
+
+        BufferedImage thumb = ImageIO.read(storage.thumbnail(key).toFile());
+        assertThat(thumb.getWidth()).isEqualTo(256);
+        assertThat(thumb.getHeight()).isEqualTo(128);
+        assertThat(registry.counter("attachment.thumbnails", "result", "created").count()).isEqualTo(1);
+    }
+
+    @Test
+    void pdfGetsItsFirstPageRastered() throws Exception {
+        ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        try (PDDocument doc = new PDDocument()) {
+            doc.addPage(new PDPage(PDRectangle.A4));
+            doc.addPage(new PDPage(PDRectangle.A4));
+            doc.save(pdf);
+        }
+        AttachmentStorageService.StoredBlob blob = storage.save(new ByteArrayInputStream(pdf.toByteArray()), "application/pdf");
+        String key = blob.key();
+
+        assertThat(blob.encoding()).isEqualTo(AttachmentStorageService.GZIP);
+        thumbnails.generate(key, blob.encoding(), "application/pdf");
+
+        BufferedImage thumb = ImageIO.read(storage.thumbnail(key).toFile());
+        assertThat(thumb.getHeight()).isEqualTo(256);
+        assertThat(thumb.getWidth()).isLessThan(256);
+    }
+
+    @Test
+    void undecodableImageIsSkipped() throws Exception {
+        AttachmentStorageService.StoredBlob blob = storage.save(new ByteArrayInputStream("not an image".getBytes()), "image/png");
+        String key = blob.key();
+
+        thumbnails.generate(key, blob.encoding(), "image/png");
+
+        assertThat(storage.thumbnail(key)).doesNotExist();
+        assertThat(registry.counter("attachment.thumbnails", "result", "unsupported").count()).isEqualTo(1);
+    }
+
+    @Test
+    void blobDeleteTakesThePreviewAlong() throws Exception {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), "png", png);
+        AttachmentStorageService.StoredBlob blob = storage.save(new ByteArrayInputStream(png.toByteArray()), "image/png");
+        String key = blob.key();
+        thumbnails.generate(key, blob.encoding(), "image/png");
+
+        storage.delete(key);
+
+        assertThat(storage.thumbnail(key)).doesNotExist();
+    }
+}
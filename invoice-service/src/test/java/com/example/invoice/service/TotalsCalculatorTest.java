@@ -0,0 +1,103 @@
+package com.example.invoice.service;
+
+import com.example.invoice.model.InvoiceItem;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+class TotalsCalculatorTest {
+
+    private static InvoiceItem item(String quantity, String unitPrice, String taxRate) {
+        InvoiceItem item = new InvoiceItem();
+        item.setQuantity(new BigDecimal(quantity));
+        item.setUnitPrice(new BigDecimal(unitPrice));
+        item.setTaxRate(new BigDecimal(taxRate));
+        return item;
+    }
+
+    @Test
+    void shouldComputeLineAndInvoiceTotals() {
+        List<InvoiceItem> items = List.of(item("10", "100.00", "10.00"), item("2.5", "100.00", "5.00"));
+
+        TotalsCalculator.Totals totals = TotalsCalculator.computeLines(items);
+
+        assertThat(items.get(0).getLineTotal()).isEqualTo(new BigDecimal("1100.00"));
+        assertThat(items.get(1).getLineTotal()).isEqualTo(new BigDecimal("262.50"));
+        assertThat(totals.subTotal()).isEqualTo(new BigDecimal("1250.00"));
+        assertThat(totals.taxTotal()).isEqualTo(new BigDecimal("112.50"));
+        assertThat(totals.total()).isEqualTo(new BigDecimal("1362.50"));
+    }
+
+    @Test
+    void shouldApplyTaxRateAsTwoPlaceFractionLikeMoneyUtils() {
+        // 7.25% is applied as 0.07, 7.5% as 0.08
+        List<InvoiceItem> items = List.of(item("1", "100.00", "7.25"), item("1", "100.00", "7.5"));
+
+        TotalsCalculator.computeLines(items);
+
+        assertThat(items.get(0).getLineTotal()).isEqualTo(new BigDecimal("107.00"));
+        assertThat(items.get(1).getLineTotal()).isEqualTo(new BigDecimal("108.00"));
+    }
+
+    @Test
+    void shouldRoundHalfUpAwayFromZeroForCredits() {
+        List<InvoiceItem> items = List.of(item("-0.5", "0.01", "0"), item("0.5", "0.01", "0"));
+
+        TotalsCalculator.Totals totals = TotalsCalculator.computeLines(items);
+
+        assertThat(items.get(0).getLineTotal()).isEqualTo(new BigDecimal("-0.01"));
+        assertThat(items.get(1).getLineTotal()).isEqualTo(new BigDecimal("0.01"));
+        assertThat(totals.total()).isEqualTo(new BigDecimal("0.00"));
+    }
+
+    @Test
+    void shouldRejectMissingTaxRateWithoutTouchingLines() {
+        InvoiceItem missing = item("1", "10.00", "0");
+        missing.setTaxRate(null);
+        List<InvoiceItem> items = List.of(item("1", "100.00", "10.00"), missing);
+
+        assertThatThrownBy(() -> TotalsCalculator.computeLines(items)).isInstanceOf(NullPointerException.class);
+        assertThat(items.get(0).getLineTotal()).isEqualByComparingTo("0");
+        assertThatThrownBy(() -> TotalsCalculator.computeExact(items)).isInstanceOf(NullPointerException.class);
+    }
+
+    @Test
+    void shouldMatchBigDecimalPathOnRandomInvoices() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            List<InvoiceItem> fast = new ArrayList<>();
+            List<InvoiceItem> exact = new ArrayList<>();
+            for (int n = 0; n < 50; n++) {
+                String quantity = BigDecimal.valueOf(random.nextInt(200_000) - 20_000, 3).toPlainString();
+                String price = BigDecimal.valueOf(random.nextInt(10_000_000), 3).toPlainString();
+                String rate = BigDecimal.valueOf(random.nextInt(3_000), 2).toPlainString();
+                fast.add(item(quantity, price, rate));
+                exact.add(item(quantity, price, rate));
+            }
+
+            TotalsCalculator.Totals actual = TotalsCalculator.computeLines(fast);
+            TotalsCalculator.Totals expected = TotalsCalculator.computeExact(exact);
+
+            assertThat(actual).isEqualTo(expected);
+            for (int n = 0; n < fast.size(); n++) {
+                assertThat(fast.get(n).getLineTotal()).isEqualTo(exact.get(n).getLineTotal());
+            }
+        }
+    }
+
+    @Test
+    void shouldFallBackToBigDecimalOnOverflow() {
+        List<InvoiceItem> items = List.of(item("99999999999", "99999999999.99", "10"));
+
+        TotalsCalculator.Totals totals = TotalsCalculator.computeLines(items);
+
+        assertThat(totals.subTotal()).isEqualTo(new BigDecimal("9999999999899000000000.01"));
+        assertThat(totals.taxTotal()).isEqualTo(new BigDecimal("999999999989900000000.00"));
+        assertThat(items.get(0).getLineTotal()).isEqualTo(totals.total());
+    }
+}